@@ -2,6 +2,8 @@ plugins {
     alias(libs.plugins.android.application)
 }
 
+val compressedTextures = layout.buildDirectory.dir("generated/textures")
+
 android {
     namespace = "com.sam.maze"
     compileSdk = 35
@@ -29,7 +31,48 @@ android {
         sourceCompatibility = JavaVersion.VERSION_11
         targetCompatibility = JavaVersion.VERSION_11
     }
+    testOptions {
+        unitTests.isReturnDefaultValues = true // GL calls of models built in tests do nothing
+        unitTests.all {
+            it.systemProperty("maze.benchmark", project.hasProperty("mazeBenchmark"))
+            it.maxHeapSize = "2g"
+        }
+    }
+    sourceSets["main"].assets.srcDir(compressedTextures)
+    androidResources {
+        noCompress += "ktx" // mapped straight from the APK, see TextureManager.map()
+    }
+}
+
+// ETC2 copies of the drawables with all mipmap levels, written to assets/textures/<name>.ktx.
+// Needs EtcTool from etc2comp on the PATH or -PetcTool=<path>; without it the app decodes the drawables.
+val compressTextures by tasks.registering {
+    val drawables = fileTree("src/main/res/drawable") { include("*.png", "*.jpg") }
+    val tool = (findProperty("etcTool") as String?) ?: "EtcTool"
+    inputs.files(drawables)
+    inputs.property("tool", tool)
+    outputs.dir(compressedTextures)
+    doLast {
+        val dir = compressedTextures.get().dir("textures").asFile
+        dir.mkdirs()
+        for (file in drawables) {
+            val ktx = File(dir, file.nameWithoutExtension + ".ktx")
+            val process = try {
+                ProcessBuilder(tool, file.absolutePath, "-format", "RGB8", "-mipmaps", "16", "-output", ktx.absolutePath)
+                    .redirectErrorStream(true).start()
+            } catch (e: java.io.IOException) {
+                logger.warn("compressTextures: $tool not found, textures stay uncompressed")
+                return@doLast
+            }
+            val output = process.inputStream.bufferedReader().readText()
+            if (process.waitFor() != 0) {
+                ktx.delete()
+                logger.warn("compressTextures: ${file.name} not converted\n$output")
+            }
+        }
+    }
 }
+tasks.named("preBuild") { dependsOn(compressTextures) }
 
 dependencies {
 
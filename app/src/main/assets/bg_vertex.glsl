@@ -7,7 +7,12 @@ layout(location = 2) in vec2 vTex;
 out vec3 fNorm;
 out vec2 fTex;
 
-uniform mat4 model, view, proj;
+layout(std140) uniform Frame { // see UniformBlock
+    mat4 view, proj;
+    vec3 viewPos;
+};
+
+uniform mat4 model;
 
 void main() {
     fTex = vTex;
@@ -24,9 +24,14 @@ struct Light {
 };
 
 uniform Material material;
-uniform vec3 viewPos;
-uniform Light pointLight[NUM_POINT_LIGHTS];
-uniform Light dirLight[NUM_DIR_LIGHTS];
+layout(std140) uniform Frame { // see UniformBlock
+    mat4 view, proj;
+    vec3 viewPos;
+};
+layout(std140) uniform Lights { // see Lights.java
+    Light pointLight[NUM_POINT_LIGHTS];
+    Light dirLight[NUM_DIR_LIGHTS];
+};
 
 vec3 calcDirLight(Light light, vec3 viewDir);
 vec3 calcPointLight(Light light, vec3 viewDir);
@@ -3,18 +3,26 @@
 layout(location = 0) in vec3 vPos;
 layout(location = 1) in vec3 vNorm;
 layout(location = 2) in vec2 vTex;
+layout(location = 3) in mat4 iModel; // per instance, see Model.setInstances()
+layout(location = 7) in mat3 iNormal;
 
 out vec2 fTex;
 out vec3 fPos, fNorm;
 
+layout(std140) uniform Frame { // see UniformBlock
+    mat4 view, proj;
+    vec3 viewPos;
+};
+
 uniform mat4 normal; // later make it a mat3
-uniform mat4 model, view, proj;
+uniform mat4 model;
+uniform bool instanced;
 
 void main() {
     fTex = vTex;
-    mat3 normal = mat3(normal);
+    mat3 normal = instanced ? iNormal : mat3(normal);
     fNorm = normal * vNorm;
-    vec4 worldPos = model * vec4(vPos, 1.0);
+    vec4 worldPos = (instanced ? iModel : model) * vec4(vPos, 1.0);
     fPos = vec3(worldPos);
 
     gl_Position = proj * view * worldPos;
@@ -0,0 +1,93 @@
+package com.sam.maze;
+
+import java.util.Arrays;
+
+// A* with a Manhattan heuristic on an indexed binary heap (no boxing, no per-cell objects).
+public class AStarSolver implements MazeSolver {
+    private int [] prev = new int[0], cost = new int[0], heap = new int[0], heapPos = new int[0], priority = new int[0];
+    private int size;
+
+    private void swap(int i, int j) {
+        int t = heap[i]; heap[i] = heap[j]; heap[j] = t;
+        heapPos[heap[i]] = i;
+        heapPos[heap[j]] = j;
+    }
+
+    private void up(int i) {
+        while (i > 0 && priority[heap[(i - 1) / 2]] > priority[heap[i]]) {
+            swap(i, (i - 1) / 2);
+            i = (i - 1) / 2;
+        }
+    }
+
+    private void down(int i) {
+        while (true) {
+            int l = 2 * i + 1, r = l + 1, min = i;
+            if (l < size && priority[heap[l]] < priority[heap[min]]) min = l;
+            if (r < size && priority[heap[r]] < priority[heap[min]]) min = r;
+            if (min == i) return;
+            swap(i, min);
+            i = min;
+        }
+    }
+
+    private void push(int cell, int p) {
+        priority[cell] = p;
+        if (heapPos[cell] < 0) {
+            heap[size] = cell;
+            heapPos[cell] = size;
+            up(size++);
+        } else {
+            up(heapPos[cell]); // decrease key
+        }
+    }
+
+    private int pop() {
+        int cell = heap[0];
+        heapPos[cell] = -1;
+        if (--size > 0) {
+            heap[0] = heap[size];
+            heapPos[heap[0]] = 0;
+            down(0);
+        }
+        return cell;
+    }
+
+    @Override
+    public boolean solve(Maze maze, int fromX, int fromY, int toX, int toY) {
+        final int width = maze.width, n = width * maze.height;
+        final int from = fromY * width + fromX, to = toY * width + toX;
+        if (prev.length < n) {
+            prev = new int[n];
+            cost = new int[n];
+            heap = new int[n];
+            heapPos = new int[n];
+            priority = new int[n];
+        }
+        Arrays.fill(prev, 0, n, -1);
+        Arrays.fill(heapPos, 0, n, -1);
+        maze.clearVisits();
+
+        size = 0;
+        prev[from] = from;
+        cost[from] = 0;
+        push(from, Math.abs(toX - fromX) + Math.abs(toY - fromY));
+        while (size > 0) {
+            final int c = pop();
+            if (c == to) break;
+            for (int dir = 0; dir < 4; ++dir) {
+                final int next = maze.step(c, dir);
+                if (next < 0 || (prev[next] >= 0 && cost[next] <= cost[c] + 1)) continue;
+                prev[next] = c;
+                cost[next] = cost[c] + 1;
+                push(next, cost[next] + Math.abs(toX - next % width) + Math.abs(toY - next / width));
+            }
+        }
+        if (prev[to] < 0) return false;
+
+        for (int c = to; c != from; c = prev[c])
+            maze.mark(c);
+        maze.mark(from);
+        return true;
+    }
+}
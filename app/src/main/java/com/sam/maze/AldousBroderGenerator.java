@@ -0,0 +1,26 @@
+package com.sam.maze;
+
+import java.util.Random;
+
+// The original random walk. Uniform, but its cover time grows super-linearly with the maze size.
+public class AldousBroderGenerator implements MazeGenerator {
+    @Override
+    public void generate(Maze maze, Random random) {
+        final int width = maze.width, height = maze.height;
+        int until = width * height;
+        BitArray visit = new BitArray(until);
+
+        int i = random.nextInt(until);
+        visit.set(i);
+        int count = 1;
+        while (count < until) {
+            int j = WilsonGenerator.randomNeighbour(i, width, height, random);
+            if (!visit.get(j)) {
+                visit.set(j);
+                ++count;
+                maze.connect(i, j);
+            }
+            i = j;
+        }
+    }
+}
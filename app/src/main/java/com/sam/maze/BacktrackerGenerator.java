@@ -0,0 +1,44 @@
+package com.sam.maze;
+
+import java.util.Random;
+
+// Recursive backtracker without a stack: each cell remembers the direction it was entered
+// from, which is all that is needed to walk back. One byte per cell.
+public class BacktrackerGenerator implements MazeGenerator {
+    private static final byte UNVISITED = 0, ROOT = 1, FROM_LEFT = 2, FROM_RIGHT = 3, FROM_TOP = 4, FROM_BOTTOM = 5;
+
+    @Override
+    public void generate(Maze maze, Random random) {
+        final int width = maze.width, height = maze.height, n = width * height;
+        byte [] from = new byte[n];
+        int [] options = new int[4];
+
+        int c = random.nextInt(n);
+        from[c] = ROOT;
+        while (c >= 0) {
+            final int x = c % width, y = c / width;
+            int count = 0;
+            if (x > 0 && from[c - 1] == UNVISITED) options[count++] = c - 1;
+            if (x < width - 1 && from[c + 1] == UNVISITED) options[count++] = c + 1;
+            if (y > 0 && from[c - width] == UNVISITED) options[count++] = c - width;
+            if (y < height - 1 && from[c + width] == UNVISITED) options[count++] = c + width;
+            if (count == 0) {
+                switch (from[c]) {
+                    case FROM_LEFT : c = c - 1; break;
+                    case FROM_RIGHT : c = c + 1; break;
+                    case FROM_TOP : c = c - width; break;
+                    case FROM_BOTTOM : c = c + width; break;
+                    default : c = -1; // back at the root
+                }
+                continue;
+            }
+            final int next = options[random.nextInt(count)];
+            if (next == c - 1) from[next] = FROM_RIGHT;
+            else if (next == c + 1) from[next] = FROM_LEFT;
+            else if (next < c) from[next] = FROM_BOTTOM;
+            else from[next] = FROM_TOP;
+            maze.connect(c, next);
+            c = next;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.sam.maze;
+
+import java.util.Arrays;
+
+// Breadth-first search: shortest path, O(cells) with a flat int queue.
+public class BfsSolver implements MazeSolver {
+    private int [] prev = new int[0], queue = new int[0];
+
+    @Override
+    public boolean solve(Maze maze, int fromX, int fromY, int toX, int toY) {
+        final int n = maze.width * maze.height;
+        final int from = fromY * maze.width + fromX, to = toY * maze.width + toX;
+        if (prev.length < n) {
+            prev = new int[n];
+            queue = new int[n];
+        }
+        Arrays.fill(prev, 0, n, -1);
+        maze.clearVisits();
+
+        int head = 0, tail = 0;
+        queue[tail++] = from;
+        prev[from] = from;
+        while (head < tail && prev[to] < 0) {
+            final int c = queue[head++];
+            for (int dir = 0; dir < 4; ++dir) {
+                final int next = maze.step(c, dir);
+                if (next >= 0 && prev[next] < 0) {
+                    prev[next] = c;
+                    queue[tail++] = next;
+                }
+            }
+        }
+        if (prev[to] < 0) return false;
+
+        for (int c = to; c != from; c = prev[c])
+            maze.mark(c);
+        maze.mark(from);
+        return true;
+    }
+}
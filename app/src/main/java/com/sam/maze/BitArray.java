@@ -0,0 +1,49 @@
+package com.sam.maze;
+
+import java.util.Arrays;
+
+// Fixed-size bitset over a long[], one bit per flag.
+public final class BitArray {
+    private final long [] words;
+    private final int size;
+
+    public BitArray(int size) {
+        this.size = size;
+        words = new long[(size + 63) >>> 6];
+    }
+
+    BitArray(int size, long [] words) {
+        if (words.length != (size + 63) >>> 6)
+            throw new IllegalArgumentException("BitArray: Wrong number of words.");
+        this.size = size;
+        this.words = words;
+    }
+
+    public int size() { return size; }
+
+    public boolean get(int i) {
+        return (words[i >>> 6] & (1L << i)) != 0;
+    }
+
+    public void set(int i) {
+        words[i >>> 6] |= 1L << i;
+    }
+
+    public void clear(int i) {
+        words[i >>> 6] &= ~(1L << i);
+    }
+
+    public void set(int i, boolean value) {
+        if (value) set(i); else clear(i);
+    }
+
+    public void fill(boolean value) {
+        Arrays.fill(words, value ? -1L : 0L);
+        if (value && (size & 63) != 0)
+            words[words.length - 1] = -1L >>> (64 - (size & 63)); // keep the tail clean
+    }
+
+    long [] words() {
+        return words;
+    }
+}
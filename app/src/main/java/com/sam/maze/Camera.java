@@ -0,0 +1,130 @@
+package com.sam.maze;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.round;
+
+import android.opengl.Matrix;
+
+// The player's eye: walks through the maze without crossing walls, and flies up and looks down
+// on the maze after death. Keeps its vectors, walking, turning and update() allocate nothing.
+public class Camera {
+    private static final double DEATH_DURATION = 3000.0; // death takes 3s
+
+    private final WallLayout walls;
+    private final float width, height; // where the dead may fly, 0 for no bounds
+    final Vec3 pos = new Vec3(0.0f), dir = new Vec3(1.0f, 0.0f, 0.0f);
+    float rotXY, rotZ;
+    boolean alive = true, lookingBack;
+    private final Vec3 deathPos = new Vec3(0.0f), deathDir = new Vec3(0.0f), deathUp = new Vec3(0.0f);
+    private long deathTime;
+    private boolean landed; // the end of the death flight has been shown
+
+    // results of update()
+    final float [] view = new float[16];
+    final Vec3 viewPos = new Vec3(0.0f);
+    private final Vec3 viewDir = new Vec3(0.0f), viewUp = new Vec3(0.0f), way = new Vec3(0.0f);
+
+    public Camera(WallLayout walls, int width, int height) {
+        this.walls = walls;
+        this.width = width;
+        this.height = height;
+    }
+
+    public void place(float x, float y, float z, float rotXY, float rotZ) {
+        pos.set(x, y, z);
+        this.rotXY = rotXY;
+        this.rotZ = rotZ;
+        turn(0.0f, 0.0f);
+    }
+
+    private static float radians(float deg) {
+        return deg * (float)Math.PI / 180.0f;
+    }
+
+    public void walk(float step, float strafe) {
+        if (!alive) {
+            deathPos.z = Math.max(2.0f, Math.min(deathPos.z - step, 10.0f));
+            return;
+        }
+
+        step = Math.max(-0.1f, Math.min(0.1f, step));
+
+        way.set(step * dir.x, step * dir.y, 0.0f);
+        if (strafe != 0.0f) {
+            strafe = Math.max(-0.1f, Math.min(0.1f, strafe));
+            way.addInPlace(strafe * dir.y, -strafe * dir.x, 0.0f);
+        }
+
+        final float w = 0.3f;
+
+        // simple collision detection
+        float xDiff = pos.x-round(pos.x);
+        float yDiff = pos.y-round(pos.y);
+
+        if (abs(xDiff) <= w)
+            if (walls.left(round(pos.x),(int)Math.floor(pos.y)) && (pos.x-round(pos.x))*way.x < 0) way.x = 0;
+        if (abs(yDiff) <= w)
+            if (walls.top((int)Math.floor(pos.x),round(pos.y)) && (pos.y-round(pos.y))*way.y < 0) way.y = 0;
+        if (abs(yDiff) <= w*0.7f && abs(xDiff) <= w*0.7f) {
+            // "slice" into wall
+            if (walls.left(round(pos.x),round(pos.y)-(yDiff>0?1:0)) && (pos.y-round(pos.y))*way.y < 0) way.y = 0;
+            if (walls.top(round(pos.x)-(xDiff>0?1:0),round(pos.y)) && (pos.x-round(pos.x))*way.x < 0) way.x = 0;
+        }
+
+        pos.addInPlace(way);
+    }
+
+    public void turn(float horizontal, float vertical) {
+        if (alive) {
+            rotZ = Math.max(radians(-89.5f), Math.min(radians(89.5f), rotZ + vertical));
+            rotXY += horizontal;
+            dir.set((float)(Math.cos(rotXY) * Math.cos(rotZ)), (float)(Math.sin(rotXY) * Math.cos(rotZ)), (float)Math.sin(rotZ));
+        } else if (width == 0.0f) {
+            deathPos.x = deathPos.x - horizontal * deathUp.y + vertical * deathUp.x;
+            deathPos.y = deathPos.y + vertical * deathUp.y + horizontal * deathUp.x;
+        } else {
+            deathPos.x = Math.max(Math.min(width, deathPos.x - horizontal * deathUp.y + vertical * deathUp.x), 0.0f);
+            deathPos.y = Math.max(Math.min(height, deathPos.y + vertical * deathUp.y + horizontal * deathUp.x), 0.0f);
+        }
+    }
+
+    // lifts the camera above the maze
+    public void fall(long time) {
+        alive = false;
+        deathPos.set(pos).addInPlace(0.0f, 0.0f, 5.0f);
+        deathUp.set(dir.x, dir.y, 0.0f).normalizeInPlace();
+        deathDir.set(0.1f*deathUp.x, 0.1f*deathUp.y, -1.0f);
+        deathTime = time;
+        landed = false;
+    }
+
+    // true from death until update() has reached the end of the flight
+    public boolean flying() {
+        return !alive && !landed;
+    }
+
+    // the view matrix and eye position at the given time
+    public void update(long time) {
+        viewDir.set(dir.x * (lookingBack ? -1 : 1), dir.y * (lookingBack ? -1 : 1), dir.z);
+        float a = (float) Math.sqrt(1.0f - viewDir.z * viewDir.z);
+        viewUp.set(-viewDir.z * viewDir.x / a, -viewDir.z * viewDir.y / a, a);
+        viewPos.set(pos);
+
+        if (!alive) {
+            if (time - deathTime < DEATH_DURATION) {
+                float phase = (float) (0.5 * Math.sin(Math.min((double) (time - deathTime) / DEATH_DURATION * Math.PI, Math.PI) - Math.PI / 2.0) + 0.5);
+                viewPos.mixInPlace(deathPos, phase);
+                viewDir.mixInPlace(deathDir, phase);
+                viewUp.mixInPlace(deathUp, phase);
+            } else {
+                viewPos.set(pos.set(deathPos));
+                viewDir.set(dir.set(deathDir));
+                viewUp.set(deathUp);
+                landed = true;
+            }
+        }
+
+        Matrix.setLookAtM(view, 0, viewPos.x, viewPos.y, viewPos.z,
+                viewPos.x + viewDir.x, viewPos.y + viewDir.y, viewPos.z + viewDir.z, viewUp.x, viewUp.y, viewUp.z);
+    }
+}
@@ -0,0 +1,42 @@
+package com.sam.maze;
+
+// Dead-end filling: keeps filling cells with a single exit until only the solution is left.
+// In a perfect maze that is exactly the path, loops in other mazes survive the filling.
+public class DeadEndSolver implements MazeSolver {
+    private byte [] exits = new byte[0];
+    private int [] queue = new int[0];
+
+    @Override
+    public boolean solve(Maze maze, int fromX, int fromY, int toX, int toY) {
+        final int n = maze.width * maze.height;
+        final int from = fromY * maze.width + fromX, to = toY * maze.width + toX;
+        if (exits.length < n) {
+            exits = new byte[n];
+            queue = new int[n];
+        }
+        maze.clearVisits();
+
+        int tail = 0;
+        for (int c = 0; c < n; ++c) {
+            byte count = 0;
+            for (int dir = 0; dir < 4; ++dir)
+                if (maze.step(c, dir) >= 0) ++count;
+            exits[c] = count;
+            if (count <= 1 && c != from && c != to) queue[tail++] = c;
+        }
+        for (int head = 0; head < tail; ++head) {
+            final int c = queue[head];
+            exits[c] = -1; // filled
+            for (int dir = 0; dir < 4; ++dir) {
+                final int next = maze.step(c, dir);
+                if (next >= 0 && exits[next] > 0 && --exits[next] == 1 && next != from && next != to)
+                    queue[tail++] = next;
+            }
+        }
+        if (exits[from] < 0 || exits[to] < 0 || (from != to && exits[from] == 0)) return false;
+
+        for (int c = 0; c < n; ++c)
+            if (exits[c] >= 0) maze.mark(c);
+        return true;
+    }
+}
@@ -0,0 +1,67 @@
+package com.sam.maze;
+
+import java.util.Arrays;
+
+// Collects the draws of one shader and submits them sorted by textures, material and vertex array,
+// so consecutive draws share as much state as possible.
+public class DrawQueue {
+    private Model [] models = new Model[16];
+    private float [][] transforms = new float[16][];
+    private int count;
+
+    // the transform is the model matrix, it is not copied
+    public void add(Model model, float [] transform) {
+        if (count == models.length) {
+            models = Arrays.copyOf(models, 2 * count);
+            transforms = Arrays.copyOf(transforms, 2 * count);
+        }
+        models[count] = model;
+        transforms[count++] = transform;
+    }
+
+    int size() { return count; }
+    Model model(int i) { return models[i]; }
+
+    private static int compare(Model a, Model b) {
+        if (a.diffuseTex != b.diffuseTex) return Integer.compare(a.diffuseTex, b.diffuseTex);
+        if (a.specularTex != b.specularTex) return Integer.compare(a.specularTex, b.specularTex);
+        if (a.shininess != b.shininess) return Float.compare(a.shininess, b.shininess);
+        return Integer.compare(a.vao, b.vao);
+    }
+
+    // insertion sort: stable, allocation free and quick for a handful of draws
+    void sort() {
+        for (int i = 1; i < count; ++i) {
+            final Model model = models[i];
+            final float [] transform = transforms[i];
+            int k = i;
+            for (; k > 0 && compare(models[k-1], model) > 0; --k) {
+                models[k] = models[k-1];
+                transforms[k] = transforms[k-1];
+            }
+            models[k] = model;
+            transforms[k] = transform;
+        }
+    }
+
+    // draws and empties the queue, the normal matrix is the same for all draws
+    public void submit(Shader shader, float [] normal, RenderState state) {
+        sort();
+        final int model = shader.handle("model");
+        shader.uniform(shader.handle("normal"), normal);
+        float [] last = null;
+        for (int i = 0; i < count; ++i) {
+            if (transforms[i] != last) shader.uniform(model, transforms[i]);
+            last = transforms[i];
+            models[i].draw(shader, state);
+        }
+        clear();
+    }
+
+    // forgets the draws, the arrays keep their size
+    void clear() {
+        Arrays.fill(models, 0, count, null);
+        Arrays.fill(transforms, 0, count, null);
+        count = 0;
+    }
+}
@@ -0,0 +1,70 @@
+package com.sam.maze;
+
+import java.util.Random;
+
+// Eller's algorithm: one row at a time, only the set labels of the current row are kept.
+public class EllerGenerator implements MazeGenerator {
+    private int [] parent;
+
+    private int find(int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    @Override
+    public void generate(Maze maze, Random random) {
+        final int width = maze.width, height = maze.height;
+        // labels of the current row: < width for sets carried down from the row above, width + x for fresh cells
+        int [] label = new int[width];
+        int [] first = new int[2 * width]; // first cell of the row that carries a label
+        int [] last = new int[width];      // last cell of each set, forced down if the set has no exit yet
+        boolean [] down = new boolean[width];
+        parent = new int[width];
+
+        for (int x = 0; x < width; ++x)
+            label[x] = width + x;
+
+        for (int y = 0; y < height; ++y) {
+            final int row = y * width;
+            final boolean lastRow = y == height - 1;
+
+            for (int x = 0; x < width; ++x)
+                first[label[x]] = -1;
+            for (int x = 0; x < width; ++x) {
+                if (first[label[x]] < 0) first[label[x]] = x;
+                parent[x] = first[label[x]];
+            }
+
+            // join neighbours of different sets
+            for (int x = 0; x < width - 1; ++x) {
+                int a = find(x), b = find(x + 1);
+                if (a != b && (lastRow || random.nextBoolean())) {
+                    parent[b] = a;
+                    maze.connect(row + x, row + x + 1);
+                }
+            }
+            if (lastRow) break;
+
+            // every set continues downwards at least once
+            for (int x = 0; x < width; ++x) {
+                label[x] = find(x);
+                down[label[x]] = false;
+                last[label[x]] = x;
+            }
+            for (int x = 0; x < width; ++x) {
+                final int set = label[x];
+                boolean open = random.nextBoolean() || (last[set] == x && !down[set]);
+                if (open) {
+                    down[set] = true;
+                    maze.connect(row + x, row + x + width);
+                } else {
+                    label[x] = width + x;
+                }
+            }
+        }
+        parent = null;
+    }
+}
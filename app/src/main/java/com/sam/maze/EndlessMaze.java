@@ -0,0 +1,99 @@
+package com.sam.maze;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+// Unbounded maze made of CHUNK_SIZE x CHUNK_SIZE chunks that are generated when first touched.
+// Every chunk is a perfect maze seeded from (seed, chunk), and opens one door in its top and one
+// in its left border, chosen from the seam alone. Both neighbours of a seam agree on its door
+// without ever seeing each other, so chunks can be dropped and rebuilt identically later on.
+// One thread at a time: the loader builds it, the GL thread takes it over through the loader's Future.
+public class EndlessMaze implements WallLayout {
+    public static final int CHUNK_SIZE = 32;
+    public static final int KEEP_RADIUS = 2; // chunks around the player that stay in memory
+
+    private final long seed;
+    private final MazeGenerator generator;
+    private final Map<Long, Maze> chunks = new HashMap<>();
+    private long lastKey;
+    private Maze last;
+    private long center = Long.MIN_VALUE;
+
+    public EndlessMaze(long seed) {
+        this(seed, new WilsonGenerator());
+    }
+
+    public EndlessMaze(long seed, MazeGenerator generator) {
+        this.seed = seed;
+        this.generator = generator;
+    }
+
+    public long getSeed() { return seed; }
+
+    static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xffffffffL);
+    }
+
+    // SplitMix64 finalizer over the seed, the chunk and what the number is used for
+    private long hash(int cx, int cy, int salt) {
+        long z = seed + 0x9E3779B97F4A7C15L * (key(cx, cy) * 31 + salt + 1);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private int door(int cx, int cy, int salt) {
+        return (int) ((hash(cx, cy, salt) >>> 1) % CHUNK_SIZE);
+    }
+
+    private Maze generate(int cx, int cy) {
+        Maze chunk = new Maze(CHUNK_SIZE, CHUNK_SIZE, generator, hash(cx, cy, 0));
+        chunk.setLeft(0, 0, true); // no entrance
+        chunk.setTop(door(cx, cy, 1), 0, false);  // seam to the chunk above
+        chunk.setLeft(0, door(cx, cy, 2), false); // seam to the chunk on the left
+        return chunk;
+    }
+
+    // consecutive lookups in the same chunk, as along a row of cells, skip the map
+    Maze chunk(int cx, int cy) {
+        final long k = key(cx, cy);
+        if (last != null && lastKey == k) return last;
+        Maze chunk = chunks.get(k);
+        if (chunk == null) {
+            chunk = generate(cx, cy);
+            chunks.put(k, chunk);
+        }
+        lastKey = k;
+        last = chunk;
+        return chunk;
+    }
+
+    int size() {
+        return chunks.size();
+    }
+
+    // Evicts the chunks that are more than KEEP_RADIUS chunks away from the given position.
+    public void retain(float x, float y) {
+        final int cx = Math.floorDiv((int) Math.floor(x), CHUNK_SIZE), cy = Math.floorDiv((int) Math.floor(y), CHUNK_SIZE);
+        if (key(cx, cy) == center) return;
+        center = key(cx, cy);
+        Iterator<Map.Entry<Long, Maze>> it = chunks.entrySet().iterator();
+        while (it.hasNext()) {
+            final long k = it.next().getKey();
+            if (Math.abs((int) (k >> 32) - cx) > KEEP_RADIUS || Math.abs((int) k - cy) > KEEP_RADIUS)
+                it.remove();
+        }
+        last = null;
+    }
+
+    @Override
+    public boolean top(int x, int y) {
+        return chunk(Math.floorDiv(x, CHUNK_SIZE), Math.floorDiv(y, CHUNK_SIZE)).top(Math.floorMod(x, CHUNK_SIZE), Math.floorMod(y, CHUNK_SIZE));
+    }
+
+    @Override
+    public boolean left(int x, int y) {
+        return chunk(Math.floorDiv(x, CHUNK_SIZE), Math.floorDiv(y, CHUNK_SIZE)).left(Math.floorMod(x, CHUNK_SIZE), Math.floorMod(y, CHUNK_SIZE));
+    }
+}
@@ -0,0 +1,60 @@
+package com.sam.maze;
+
+import android.opengl.GLSurfaceView;
+import android.view.Choreographer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Decides when the GL thread draws. The view renders only when dirty: a request draws one frame on
+// the next vsync, continuous mode (animations, loading) draws on every vsync. Both stay below the frame cap.
+public class FrameScheduler implements Choreographer.FrameCallback {
+    private final GLSurfaceView view;
+    private final Choreographer choreographer;
+    private final long minFrameNanos;
+    private final AtomicBoolean posted = new AtomicBoolean();
+    private volatile boolean requested, continuous;
+    private long lastFrame; // UI thread only
+
+    // UI thread, the view's render mode is set to RENDERMODE_WHEN_DIRTY once it has a renderer
+    public FrameScheduler(GLSurfaceView view, int maxFps) {
+        this.view = view;
+        choreographer = Choreographer.getInstance();
+        minFrameNanos = 1_000_000_000L / maxFps;
+    }
+
+    // one more frame, from any thread
+    public void request() {
+        requested = true;
+        post();
+    }
+
+    // frames keep coming while on, from any thread
+    public void setContinuous(boolean on) {
+        continuous = on;
+        if (on) post();
+    }
+
+    // runs the event on the GL thread before the next frame
+    public void queue(Runnable event) {
+        view.queueEvent(event);
+        request();
+    }
+
+    private void post() {
+        if (posted.compareAndSet(false, true)) choreographer.postFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        posted.set(false);
+        if (!requested && !continuous) return;
+        if (frameTimeNanos - lastFrame < minFrameNanos - minFrameNanos / 8) { // some slack, vsync times jitter
+            post();
+            return;
+        }
+        lastFrame = frameTimeNanos;
+        requested = false;
+        view.requestRender();
+        if (continuous) post();
+    }
+}
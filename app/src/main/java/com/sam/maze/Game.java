@@ -6,6 +6,14 @@ import android.content.Context;
 import android.opengl.GLES32;
 import android.opengl.GLSurfaceView;
 import android.opengl.Matrix;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -13,23 +21,54 @@ import javax.microedition.khronos.opengles.GL10;
 public class Game implements GLSurfaceView.Renderer {
     private final float TOUCH_DRAG_FACTOR = 0.004f;
     private final float TOUCH_SCALE_FACTOR = 0.004f;
-    private final int FRAMEBUFFER_WIDTH = 600;
-    private final int FRAMEBUFFER_HEIGHT = 400;
+    private final float MAX_STEP = 0.1f; // the longest walk() step
+    private static final float MIRROR_LEFT = 0.6f, MIRROR_RIGHT = 0.9f; // the mirror quad, in both directions of clip space
+    private static final String MIRROR = "mirror"; // its render target
+    // rear mirror quality for speed: texels per screen pixel it covers, and it is redrawn every that many frames,
+    // skipped frames show the last picture
+    private static final float MIRROR_SCALE = 1.0f;
+    private static final int MIRROR_INTERVAL = 2;
+    private static final String SAVE_FILE = "maze.sav";
+    private static final int [] SIZES = { 5, 10, 13, 20, 100, 0 }; // 0: endless
+    private static final String [] LEVELS = { "Trivial", "Easy", "Medium", "Hard", "Insane", "Endless" };
 
     private Model rearMirror;
-    private boolean isShowing;
-    private boolean isAlive;
+    private volatile boolean isShowing; // set on the UI thread, after the choice it publishes
+    private volatile boolean isAlive;
+    private final FrameScheduler scheduler;
+    private final Object input = new Object();
+    private float turnX, turnY, walk; // UI thread input for the next frame, guarded by input
+    private ResourceRegistry.Handle<Shader> shaderHandle; // held as long as the context
     private Shader shader;
+    private UniformBlock mirrorFrame; // identity view and projection for the mirror quad
+    private final float [] mirrorModel = new float[16]; // identity
+    private int mirrorWidth, mirrorHeight, mirrorFrames;
+    private float mirrorDetail; // the share of the screen's resolution the mirror gets
     private int scrWidth, scrHeight;
     private int worldSize;
     private long startTime;
     private String level;
     private final Context context;
     private MazeWorld mazeWorld;
+    private MazeSnapshot resume;
+    // a daemon, so a load still running never keeps the process alive
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Maze loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Future<MazeWorld.Blueprint> loading;
+    private boolean loadingSaved; // the load continues the saved game
+    private volatile float loadProgress;
 
+    // UI thread: input is collected here and applied on the GL thread before the next frame
     public void rotateView(float dx, float dy) {
-        if (isShowing)
-            mazeWorld.turn(dx * TOUCH_DRAG_FACTOR, dy * TOUCH_DRAG_FACTOR);
+        if (!isShowing) return;
+        synchronized (input) {
+            turnX += dx * TOUCH_DRAG_FACTOR;
+            turnY += dy * TOUCH_DRAG_FACTOR;
+        }
+        scheduler.request();
     }
 
     public boolean isAlive() { return isAlive; }
@@ -38,48 +77,135 @@ public class Game implements GLSurfaceView.Renderer {
         AlertDialog.Builder dlgAlert  = new AlertDialog.Builder(context);
         dlgAlert.setMessage("Give up?");
         dlgAlert.setTitle("Oh no!");
-        dlgAlert.setPositiveButton("Yes", (dialogInterface, i) -> { isAlive = false; mazeWorld.die(); } );
+        dlgAlert.setPositiveButton("Yes", (dialogInterface, i) -> {
+            isAlive = false;
+            scheduler.queue(() -> { if (mazeWorld != null) mazeWorld.die(); }); // still loading: dies once built
+            saveFile().delete();
+        });
         dlgAlert.setNegativeButton("No", (dialogInterface, i) -> {} );
         dlgAlert.setCancelable(false);
         dlgAlert.create().show();
     }
 
+    // The activity is going away: what the game holds in the context is let go on the GL thread,
+    // the context itself goes with the view. Must come before the GL thread pauses.
+    public void quit() {
+        scheduler.queue(this::release);
+    }
+
+    // GL thread
+    private void release() {
+        isShowing = false;
+        if (loading != null) loading.cancel(true);
+        loading = null;
+        if (mazeWorld != null) mazeWorld.close(); // given up, a won world is closed already
+        mazeWorld = null;
+        if (shaderHandle != null) shaderHandle.close();
+        shaderHandle = null;
+        shader = null;
+        ResourceRegistry.get().trim(); // no world follows
+        RenderTargetPool.get().releaseAll();
+        mirrorTarget = null;
+    }
+
     public void moveView(float d) {
         if (!isShowing) return;
-        mazeWorld.walk(d * TOUCH_SCALE_FACTOR, 0.0f);
-        if (!mazeWorld.inside() && isAlive) {
+        synchronized (input) {
+            // each event moves at most one step, as when it walked the camera itself
+            walk += Math.max(-MAX_STEP, Math.min(MAX_STEP, d * TOUCH_SCALE_FACTOR));
+        }
+        scheduler.request();
+    }
+
+    // GL thread
+    private void applyInput(MazeWorld world) {
+        float dx, dy, d;
+        synchronized (input) {
+            dx = turnX;
+            dy = turnY;
+            d = walk;
+            turnX = turnY = walk = 0.0f;
+        }
+        if (dx != 0.0f || dy != 0.0f) world.turn(dx, dy);
+        // the events that piled up go one step each, each is checked against the walls
+        while (Math.abs(d) > 0.0f) {
+            final float step = Math.max(-MAX_STEP, Math.min(MAX_STEP, d));
+            world.walk(step, 0.0f);
+            d -= step;
+        }
+        if (!world.inside() && isAlive) {
             isShowing = false;
-            long endTime = System.currentTimeMillis();
-            long elapsedSeconds = (endTime - startTime) / 1000;
-            AlertDialog.Builder dlgAlert  = new AlertDialog.Builder(context);
-            dlgAlert.setMessage(String.format("You've made it, kudos!\n\nLevel: %s\nTime: %d:%02d", level, elapsedSeconds / 60, elapsedSeconds % 60));
-            dlgAlert.setTitle("Well done.");
-            dlgAlert.setPositiveButton("OK", (dialogInterface, i) -> ((Activity) context).finish());
-            dlgAlert.setCancelable(false);
-            dlgAlert.create().show();
+            saveFile().delete();
+            ((Activity) context).runOnUiThread(this::congratulate);
+        }
+    }
+
+    private void congratulate() {
+        long endTime = System.currentTimeMillis();
+        long elapsedSeconds = (endTime - startTime) / 1000;
+        AlertDialog.Builder dlgAlert  = new AlertDialog.Builder(context);
+        dlgAlert.setMessage(String.format("You've made it, kudos!\n\nLevel: %s\nTime: %d:%02d", level, elapsedSeconds / 60, elapsedSeconds % 60));
+        dlgAlert.setTitle("Well done.");
+        dlgAlert.setPositiveButton("OK", (dialogInterface, i) -> ((Activity) context).finish());
+        dlgAlert.setCancelable(false);
+        dlgAlert.create().show();
+    }
+
+    private File saveFile() {
+        return new File(context.getFilesDir(), SAVE_FILE);
+    }
+
+    // Keeps the running game, called when the app goes to the background. The GL thread must be paused.
+    public void save() {
+        final MazeWorld world = mazeWorld;
+        if (world == null || !isShowing || !isAlive) return;
+        try {
+            world.snapshot(System.currentTimeMillis() - startTime).write(saveFile());
+        } catch (IOException exception) {
+            Log.e("Maze", "Couldn't save the game", exception);
         }
     }
 
-    private boolean isDrawing = false;
+    private void drawProgress(float done) {
+        final int barWidth = scrWidth / 2, barHeight = Math.max(4, scrHeight / 100);
+        GLES32.glClear(GLES32.GL_DEPTH_BUFFER_BIT | GLES32.GL_COLOR_BUFFER_BIT);
+        GLES32.glEnable(GLES32.GL_SCISSOR_TEST);
+        GLES32.glScissor(scrWidth / 4, (scrHeight - barHeight) / 2, barWidth, barHeight);
+        GLES32.glClearColor(0.15f, 0.15f, 0.15f, 1.0f);
+        GLES32.glClear(GLES32.GL_COLOR_BUFFER_BIT);
+        GLES32.glScissor(scrWidth / 4, (scrHeight - barHeight) / 2, (int)(barWidth * done), barHeight);
+        GLES32.glClearColor(0.7f, 0.7f, 0.7f, 1.0f);
+        GLES32.glClear(GLES32.GL_COLOR_BUFFER_BIT);
+        GLES32.glDisable(GLES32.GL_SCISSOR_TEST);
+        GLES32.glClearColor(0.01f, 0.01f, 0.01f, 1.0f);
+    }
+
     @Override
     public void onDrawFrame(GL10 glUnused) {
         if (!isShowing) {
             GLES32.glClear(GLES32.GL_DEPTH_BUFFER_BIT | GLES32.GL_COLOR_BUFFER_BIT);
+            scheduler.setContinuous(false);
             return;
         }
 
-        if (isDrawing) return;
-        isDrawing = true;
-
         if (mazeWorld != null) {
+            applyInput(mazeWorld);
+            if (!isShowing) {
+                // just found the way out, the textures and programs stay in the registry for the next world
+                mazeWorld.close();
+                mazeWorld = null;
+                return;
+            }
             if (isAlive) {
-                // Draw on the rear mirror
-                GLES32.glBindFramebuffer(GLES32.GL_FRAMEBUFFER, fbo);
-                GLES32.glClear(GLES32.GL_DEPTH_BUFFER_BIT | GLES32.GL_COLOR_BUFFER_BIT);
-                GLES32.glViewport(0, 0, FRAMEBUFFER_WIDTH, FRAMEBUFFER_HEIGHT);
-                mazeWorld.rearView();
-                mazeWorld.draw();
-                mazeWorld.rearView();
+                // Draw on the rear mirror, skipped frames keep the last picture
+                if (mirrorFrames++ % MIRROR_INTERVAL == 0) {
+                    GLES32.glBindFramebuffer(GLES32.GL_FRAMEBUFFER, mirrorTarget.fbo);
+                    GLES32.glClear(GLES32.GL_DEPTH_BUFFER_BIT | GLES32.GL_COLOR_BUFFER_BIT);
+                    GLES32.glViewport(0, 0, mirrorWidth, mirrorHeight);
+                    mazeWorld.drawMirror(mirrorDetail);
+                } else {
+                    scheduler.request(); // catches up once input stops
+                }
             }
 
             GLES32.glBindFramebuffer(GLES32.GL_FRAMEBUFFER, 0);
@@ -88,17 +214,50 @@ public class Game implements GLSurfaceView.Renderer {
             mazeWorld.draw();
 
             if (isAlive) {
-                // Display rear mirror
+                // Display rear mirror, the world sets its own uniforms on the same program
                 GLES32.glDepthFunc(GLES32.GL_ALWAYS);
+                shader.uniform("model", mirrorModel);
+                shader.uniform("ambient", Vec3.ONE);
+                shader.uniform("dirLightColor", Vec3.ZERO);
+                mirrorFrame.bind();
                 rearMirror.draw(shader);
                 GLES32.glDepthFunc(GLES32.GL_LESS);
             }
+            scheduler.setContinuous(mazeWorld.animating()); // otherwise the next frame waits for input
 
+        } else if (loading == null) {
+            // generation, geometry and bitmaps are built on the loader thread, only the upload happens here
+            final int size = worldSize;
+            final MazeSnapshot saved = resume;
+            resume = null;
+            loadingSaved = saved != null;
+            loadProgress = 0.0f;
+            loading = loader.submit(() -> MazeWorld.prepare(context, size, saved, done -> loadProgress = done));
+            drawProgress(0.0f);
+            scheduler.setContinuous(true); // for the progress bar
+        } else if (loading.isDone()) {
+            final MazeWorld.Blueprint blueprint;
+            try {
+                blueprint = loading.get();
+            } catch (ExecutionException | InterruptedException exception) {
+                // back to the choice, a saved game that can't be built isn't offered again
+                Log.e("Maze", "Couldn't build the maze", exception);
+                if (loadingSaved) saveFile().delete();
+                loading = null;
+                isShowing = false;
+                scheduler.setContinuous(false);
+                ((Activity) context).runOnUiThread(this::chooseLevel);
+                return;
+            }
+            mazeWorld = new MazeWorld(context, blueprint, scrWidth, scrHeight);
+            if (!isAlive) mazeWorld.die(); // gave up while loading
+            loading = null;
+            drawProgress(1.0f);
+            scheduler.setContinuous(false);
+            scheduler.request(); // the first frame of the maze
         } else {
-            mazeWorld = new MazeWorld(context, worldSize, worldSize, scrWidth, scrHeight);
+            drawProgress(loadProgress);
         }
-
-        isDrawing = false;
     }
 
     @Override
@@ -106,56 +265,28 @@ public class Game implements GLSurfaceView.Renderer {
     {
         // Set the OpenGL viewport to the same size as the surface.
         GLES32.glViewport(0, 0, width, height);
-        if (isShowing) mazeWorld.resize(width, height);
+        if (mazeWorld != null) mazeWorld.resize(width, height);
         this.scrWidth = width;
         this.scrHeight = height;
 
-        // framebuffers
+        // the mirror target is resized in place, its texture stays the same
         setupFramebuffer();
-        final Model.Vertex [] mirror = {
-                new Model.Vertex(new Vec3(0.6f, 0.6f, 1.0f), new Vec3(0.0f, 0.0f, 1.0f), new Vec2(0.0f, 0.0f)),
-                new Model.Vertex(new Vec3(0.9f, 0.9f, 1.0f), new Vec3(0.0f, 0.0f, 1.0f), new Vec2(1.0f, 1.0f)),
-                new Model.Vertex(new Vec3(0.6f, 0.9f, 1.0f), new Vec3(0.0f, 0.0f, 1.0f), new Vec2(0.0f, 1.0f)),
-
-                new Model.Vertex(new Vec3(0.6f, 0.6f, 1.0f), new Vec3(0.0f, 0.0f, 1.0f), new Vec2(0.0f, 0.0f)),
-                new Model.Vertex(new Vec3(0.9f, 0.6f, 1.0f), new Vec3(0.0f, 0.0f, 1.0f), new Vec2(1.0f, 0.0f)),
-                new Model.Vertex(new Vec3(0.9f, 0.9f, 1.0f), new Vec3(0.0f, 0.0f, 1.0f), new Vec2(1.0f, 1.0f)),
-        };
-        rearMirror = new Model(context, mirror);
-        rearMirror.setTextures(texColorBuf, texColorBuf, 0.0f);
     }
 
     private void setupFramebuffer() {
-
-        int [] handles = { fbo };
-        if (fbo != 0) GLES32.glDeleteFramebuffers(1, handles, 0);
-        GLES32.glGenFramebuffers(1, handles, 0);
-        fbo = handles[0];
-
-        GLES32.glBindFramebuffer(GLES32.GL_FRAMEBUFFER, fbo);
-        // texture for colors
-        GLES32.glGenTextures(1, handles, 0);
-        GLES32.glBindTexture(GLES32.GL_TEXTURE_2D, handles[0]);
-        texColorBuf = handles[0];
-        GLES32.glTexImage2D(GLES32.GL_TEXTURE_2D, 0, GLES32.GL_RGB, FRAMEBUFFER_WIDTH, FRAMEBUFFER_HEIGHT, 0, GLES32.GL_RGB, GLES32.GL_UNSIGNED_BYTE, null);
-        GLES32.glTexParameteri(GLES32.GL_TEXTURE_2D, GLES32.GL_TEXTURE_MIN_FILTER, GLES32.GL_LINEAR);
-        GLES32.glTexParameteri(GLES32.GL_TEXTURE_2D, GLES32.GL_TEXTURE_MAG_FILTER, GLES32.GL_LINEAR);
-        GLES32.glBindTexture(GLES32.GL_TEXTURE_2D, 0);
-        GLES32.glFramebufferTexture2D(GLES32.GL_FRAMEBUFFER, GLES32.GL_COLOR_ATTACHMENT0, GLES32.GL_TEXTURE_2D, handles[0], 0); // attach
-        // render buffer for depth and stencil
-        GLES32.glGenRenderbuffers(1, handles, 0);
-        GLES32.glBindRenderbuffer(GLES32.GL_RENDERBUFFER, handles[0]);
-        GLES32.glRenderbufferStorage(GLES32.GL_RENDERBUFFER, GLES32.GL_DEPTH24_STENCIL8, FRAMEBUFFER_WIDTH, FRAMEBUFFER_HEIGHT);
-        GLES32.glBindRenderbuffer(GLES32.GL_RENDERBUFFER, 0);
-        GLES32.glFramebufferRenderbuffer(GLES32.GL_FRAMEBUFFER, GLES32.GL_DEPTH_STENCIL_ATTACHMENT, GLES32.GL_RENDERBUFFER, handles[0]); // attach
-
-        if (GLES32.glCheckFramebufferStatus(GLES32.GL_FRAMEBUFFER) != GLES32.GL_FRAMEBUFFER_COMPLETE) {
-            throw new RuntimeException("Framebuffer could not be setup.");
-        }
-        GLES32.glBindFramebuffer(GLES32.GL_FRAMEBUFFER, 0);
+        // as many texels as the quad covers on screen, the projection is the screen's so the aspect matches
+        final float covered = (MIRROR_RIGHT - MIRROR_LEFT) / 2.0f * MIRROR_SCALE;
+        mirrorDetail = covered;
+        mirrorWidth = Math.max(1, Math.round(scrWidth * covered));
+        mirrorHeight = Math.max(1, Math.round(scrHeight * covered));
+        mirrorFrames = 0;
+        final RenderTargetPool pool = RenderTargetPool.get();
+        mirrorTarget = pool.acquire(MIRROR, mirrorWidth, mirrorHeight);
+        Log.d("Maze", String.format("Render targets: %d, %d KiB", pool.size(), pool.memory() / 1024));
+        rearMirror.setTextures(mirrorTarget.color, mirrorTarget.color, 0.0f);
     }
 
-    private int fbo, texColorBuf;
+    private RenderTargetPool.Target mirrorTarget;
 
     @Override
     public void onSurfaceCreated(GL10 glUnused, EGLConfig config) {
@@ -164,45 +295,79 @@ public class Game implements GLSurfaceView.Renderer {
         GLES32.glEnable(GLES32.GL_DEPTH_TEST);
         GLES32.glEnable(GLES32.GL_CULL_FACE);
         GLES32.glFrontFace(GLES32.GL_CCW);
+        RenderState.get().reset(); // a new context has nothing bound and no textures
+        TextureManager.get().reset();
+        RenderTargetPool.get().reset(); // went with the old context
+        ResourceRegistry.get().reset();
 
         // framebuffer
-        shader = new Shader(context, "bg_vertex.glsl", "bg_frag.glsl");
-        float [] m = new float[16];
-        Matrix.setIdentityM(m, 0);
-        shader.uniform("model", m);
-        shader.uniform("view", m);
-        shader.uniform("proj", m);
-        shader.uniform("ambient", new Vec3(1.0f));
+        // the handle of a previous context went with the registry
+        shaderHandle = Shader.acquire(context, "bg_vertex.glsl", "bg_frag.glsl");
+        shader = shaderHandle.get();
+        Matrix.setIdentityM(mirrorModel, 0);
+        mirrorFrame = new UniformBlock(UniformBlock.FRAME, UniformBlock.FRAME_SIZE);
+        mirrorFrame.put(UniformBlock.VIEW, mirrorModel);
+        mirrorFrame.put(UniformBlock.PROJ, mirrorModel);
+
+        final float l = MIRROR_LEFT, r = MIRROR_RIGHT;
+        final Model.Vertex [] mirror = {
+                new Model.Vertex(new Vec3(l, l, 1.0f), new Vec3(0.0f, 0.0f, 1.0f), new Vec2(0.0f, 0.0f)),
+                new Model.Vertex(new Vec3(r, r, 1.0f), new Vec3(0.0f, 0.0f, 1.0f), new Vec2(1.0f, 1.0f)),
+                new Model.Vertex(new Vec3(l, r, 1.0f), new Vec3(0.0f, 0.0f, 1.0f), new Vec2(0.0f, 1.0f)),
+
+                new Model.Vertex(new Vec3(l, l, 1.0f), new Vec3(0.0f, 0.0f, 1.0f), new Vec2(0.0f, 0.0f)),
+                new Model.Vertex(new Vec3(r, l, 1.0f), new Vec3(0.0f, 0.0f, 1.0f), new Vec2(1.0f, 0.0f)),
+                new Model.Vertex(new Vec3(r, r, 1.0f), new Vec3(0.0f, 0.0f, 1.0f), new Vec2(1.0f, 1.0f)),
+        };
+        rearMirror = new Model(context, mirror); // once per context, surface changes only resize its texture
     }
 
-    public Game(Context context, int scrWidth, int scrHeight) {
+    public Game(Context context, int scrWidth, int scrHeight, FrameScheduler scheduler) {
         this.context = context;
+        this.scheduler = scheduler;
         this.scrWidth = scrWidth;
         this.scrHeight = scrHeight;
         this.worldSize = 0;
-        this.fbo = 0;
         this.shader = null;
         this.isShowing = false;
+        chooseLevel();
+    }
 
-        CharSequence [] options = { " Trivial [5x5] ", " Easy [10x10] ", " Medium [13x13] ", " Hard [20x20] ", " Insane [100x100] " };
+    // UI thread
+    private void chooseLevel() {
+        CharSequence [] options = new CharSequence[SIZES.length];
+        for (int i = 0; i < SIZES.length; ++i)
+            options[i] = SIZES[i] > 0 ? String.format(" %s [%dx%d] ", LEVELS[i], SIZES[i], SIZES[i]) : String.format(" %s ", LEVELS[i]);
         AlertDialog.Builder dlgAlert = new AlertDialog.Builder(context);
         dlgAlert.setTitle("Select difficulty");
         dlgAlert.setSingleChoiceItems(options, 0, null);
         dlgAlert.setPositiveButton("Go", (dialogInterface, i) -> {
             int selected = ((AlertDialog)dialogInterface).getListView().getCheckedItemPosition();
-            switch (selected) {
-                case 0 : worldSize = 5; level = "Trivial"; break;
-                case 1 : worldSize = 10; level = "Easy"; break;
-                case 2 : worldSize = 13; level = "Medium"; break;
-                case 3 : worldSize = 20; level = "Hard"; break;
-                case 4 : worldSize = 100; level = "Insane"; break;
-            }
+            worldSize = SIZES[selected];
+            level = LEVELS[selected];
             startTime = System.currentTimeMillis();
-            isShowing = true;
             isAlive = true;
+            isShowing = true;
+            scheduler.request();
         });
+        if (saveFile().exists()) {
+            try {
+                final MazeSnapshot saved = MazeSnapshot.read(saveFile());
+                dlgAlert.setNeutralButton("Continue", (dialogInterface, i) -> {
+                    resume = saved;
+                    worldSize = saved.getSize();
+                    for (int k = 0; k < SIZES.length; ++k)
+                        if (SIZES[k] == worldSize) level = LEVELS[k];
+                    startTime = System.currentTimeMillis() - saved.getElapsedMillis();
+                    isAlive = true;
+                    isShowing = true;
+                    scheduler.request();
+                });
+            } catch (IOException exception) {
+                Log.e("Maze", "Couldn't load the saved game", exception);
+            }
+        }
         dlgAlert.setCancelable(false);
         dlgAlert.create().show();
-
     }
 }
@@ -0,0 +1,53 @@
+package com.sam.maze;
+
+import java.util.Random;
+
+// Randomized Kruskal: shuffle all inner walls, remove each one that joins two different sets.
+public class KruskalGenerator implements MazeGenerator {
+    private int [] parent;
+
+    private int find(int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]]; // path halving
+            i = parent[i];
+        }
+        return i;
+    }
+
+    @Override
+    public void generate(Maze maze, Random random) {
+        final int width = maze.width, height = maze.height, n = width * height;
+        // edge = 2 * cell + (0: towards the right neighbour, 1: towards the one below)
+        int [] edges = new int[2 * n];
+        int count = 0;
+        for (int c = 0; c < n; ++c) {
+            if (c % width < width - 1) edges[count++] = 2 * c;
+            if (c / width < height - 1) edges[count++] = 2 * c + 1;
+        }
+        for (int i = count - 1; i > 0; --i) {
+            int j = random.nextInt(i + 1);
+            int t = edges[i]; edges[i] = edges[j]; edges[j] = t;
+        }
+
+        parent = new int[n];
+        int [] size = new int[n];
+        for (int i = 0; i < n; ++i) {
+            parent[i] = i;
+            size[i] = 1;
+        }
+
+        int joined = 0;
+        for (int i = 0; i < count && joined < n - 1; ++i) {
+            final int from = edges[i] >> 1;
+            final int to = (edges[i] & 1) == 0 ? from + 1 : from + width;
+            int a = find(from), b = find(to);
+            if (a == b) continue;
+            if (size[a] < size[b]) { int t = a; a = b; b = t; }
+            parent[b] = a;
+            size[a] += size[b];
+            maze.connect(from, to);
+            ++joined;
+        }
+        parent = null;
+    }
+}
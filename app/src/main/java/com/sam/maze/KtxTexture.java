@@ -0,0 +1,60 @@
+package com.sam.maze;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// A compressed texture in the KTX 1 container, as written by the compressTextures task.
+// Only reads the header, the mipmap levels stay slices of the (usually memory-mapped) buffer.
+public class KtxTexture {
+    private static final byte [] IDENTIFIER = {
+            (byte) 0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte) 0xBB, '\r', '\n', 0x1A, '\n'
+    };
+    private static final int ENDIANNESS = 0x04030201;
+    private static final int HEADER_SIZE = 64;
+
+    final int internalFormat, width, height;
+    final ByteBuffer [] levels;
+
+    public KtxTexture(ByteBuffer data) {
+        ByteBuffer buf = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (buf.remaining() < HEADER_SIZE)
+            throw new IllegalArgumentException("KtxTexture: Truncated header.");
+        for (byte b : IDENTIFIER) {
+            if (buf.get() != b) throw new IllegalArgumentException("KtxTexture: Not a KTX 1 file.");
+        }
+        if (buf.getInt() != ENDIANNESS) buf.order(ByteOrder.BIG_ENDIAN);
+        final int glType = buf.getInt();
+        buf.getInt(); // glTypeSize
+        buf.getInt(); // glFormat
+        internalFormat = buf.getInt();
+        buf.getInt(); // glBaseInternalFormat
+        width = buf.getInt();
+        height = buf.getInt();
+        final int depth = buf.getInt(), arrayElements = buf.getInt(), faces = buf.getInt();
+        final int numLevels = Math.max(1, buf.getInt());
+        final int keyValueBytes = buf.getInt();
+
+        if (glType != 0)
+            throw new IllegalArgumentException("KtxTexture: Not compressed.");
+        if (depth != 0 || arrayElements != 0 || faces != 1 || width <= 0 || height <= 0)
+            throw new IllegalArgumentException("KtxTexture: Only plain 2D textures are supported.");
+        // a full chain halves down to 1x1, a count beyond that is a broken header
+        if (numLevels > 32 - Integer.numberOfLeadingZeros(Math.max(width, height)))
+            throw new IllegalArgumentException("KtxTexture: Too many levels for " + width + "x" + height + ".");
+
+        buf.position(buf.position() + keyValueBytes);
+        levels = new ByteBuffer[numLevels];
+        for (int i = 0; i < numLevels; ++i) {
+            if (buf.remaining() < 4) throw new IllegalArgumentException("KtxTexture: Truncated level " + i + ".");
+            final int size = buf.getInt();
+            if (size < 0 || buf.remaining() < size) throw new IllegalArgumentException("KtxTexture: Truncated level " + i + ".");
+            ByteBuffer level = buf.slice();
+            level.limit(size);
+            levels[i] = level;
+            buf.position(Math.min(buf.limit(), buf.position() + size + 3 - (size + 3) % 4)); // levels are 4 byte aligned
+        }
+    }
+
+    int levelWidth(int level) { return Math.max(1, width >> level); }
+    int levelHeight(int level) { return Math.max(1, height >> level); }
+}
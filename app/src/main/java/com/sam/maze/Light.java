@@ -1,64 +1,54 @@
 package com.sam.maze;
 
+// A light in its slot of the Lights block. Every change is written straight into the block,
+// lights that don't move are written once.
 public class Light {
-    private static int point_count = 0, dir_count = 0;
-    final private boolean point;
-    final private int index;
-    final private Vec3 ambient, diffuse, specular;
-    private Vec3 pos, dir;
-    private float constant, linear, quadratic, cutoff;
-
-    public static void reset() { point_count = dir_count = 0; }
-
-    public Light(Vec3 ambient, Vec3 diffuse, Vec3 specular) {
-        this.ambient = ambient;
-        this.diffuse = diffuse;
-        this.specular = specular;
-        pos = new Vec3(0.0f);
-        dir = new Vec3(0.0f);
-        point = false;
-        index = dir_count++;
+    // std140 layout of struct Light in frag.glsl, in floats
+    static final int SIZE = 24;
+    private static final int POS = 0, DIR = 4, AMBIENT = 8, DIFFUSE = 12, SPECULAR = 16, CONSTANT = 19, LINEAR = 20, QUADRATIC = 21, CUTOFF = 22;
+
+    private final UniformBlock block;
+    private final int offset;
+    private float posX, posY, posZ, dirX, dirY, dirZ;
+
+    public Light(Lights lights, Vec3 ambient, Vec3 diffuse, Vec3 specular) {
+        block = lights.block();
+        offset = lights.add(false);
+        put(ambient, diffuse, specular);
     }
 
-
-    public Light(Vec3 ambient, Vec3 diffuse, Vec3 specular, float constant, float linear, float quadratic, float cutoff) {
-        this.ambient = ambient;
-        this.diffuse = diffuse;
-        this.specular = specular;
-        this.constant = constant;
-        this.linear = linear;
-        this.quadratic = quadratic;
-        this.cutoff = cutoff;
-        pos = new Vec3(0.0f);
-        dir = new Vec3(0.0f);
-        point = true;
-        index = point_count++;
+    public Light(Lights lights, Vec3 ambient, Vec3 diffuse, Vec3 specular, float constant, float linear, float quadratic, float cutoff) {
+        block = lights.block();
+        offset = lights.add(true);
+        put(ambient, diffuse, specular);
+        block.put(offset + CONSTANT, constant);
+        block.put(offset + LINEAR, linear);
+        block.put(offset + QUADRATIC, quadratic);
+        block.put(offset + CUTOFF, cutoff);
     }
 
-    void apply(Shader shader) {
-        String type = point ? "point" : "dir";
-
-        shader.uniform(type + "Light[" + index + "].ambient", ambient);
-        shader.uniform(type + "Light[" + index + "].diffuse", diffuse);
-        shader.uniform(type + "Light[" + index + "].specular", specular);
-        shader.uniform(type + "Light[" + index + "].dir", dir);
-
-        if (point) {
-            shader.uniform("pointLight[" + index + "].pos", pos);
-            shader.uniform("pointLight[" + index + "].constant", constant);
-            shader.uniform("pointLight[" + index + "].linear", linear);
-            shader.uniform("pointLight[" + index + "].quadratic", quadratic);
-            shader.uniform("pointLight[" + index + "].cutoff", cutoff);
-        }
+    private void put(Vec3 ambient, Vec3 diffuse, Vec3 specular) {
+        block.put(offset + AMBIENT, ambient.x, ambient.y, ambient.z);
+        block.put(offset + DIFFUSE, diffuse.x, diffuse.y, diffuse.z);
+        block.put(offset + SPECULAR, specular.x, specular.y, specular.z);
     }
 
-    void move(Vec3 pos, Shader shader) {
-        this.pos = pos;
-        apply(shader);
+    void move(float x, float y, float z) {
+        if (x == posX && y == posY && z == posZ) return;
+        posX = x;
+        posY = y;
+        posZ = z;
+        block.put(offset + POS, x, y, z);
     }
 
-    void turn(Vec3 dir, Shader shader) {
-        this.dir = dir;
-        apply(shader);
+    void turn(float x, float y, float z) {
+        if (x == dirX && y == dirY && z == dirZ) return;
+        dirX = x;
+        dirY = y;
+        dirZ = z;
+        block.put(offset + DIR, x, y, z);
     }
+
+    void move(Vec3 pos) { move(pos.x, pos.y, pos.z); }
+    void turn(Vec3 dir) { turn(dir.x, dir.y, dir.z); }
 }
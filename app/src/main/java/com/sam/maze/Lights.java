@@ -0,0 +1,27 @@
+package com.sam.maze;
+
+// All lights of a world packed in the std140 block "Lights" of frag.glsl: point lights first, then directional ones.
+public class Lights {
+    static final int NUM_POINT_LIGHTS = 2, NUM_DIR_LIGHTS = 1; // as in frag.glsl
+
+    private final UniformBlock block = new UniformBlock(UniformBlock.LIGHTS, (NUM_POINT_LIGHTS + NUM_DIR_LIGHTS) * Light.SIZE);
+    private int points, dirs;
+
+    UniformBlock block() { return block; }
+
+    // the offset of the next free slot
+    int add(boolean point) {
+        if (point && points == NUM_POINT_LIGHTS || !point && dirs == NUM_DIR_LIGHTS)
+            throw new IllegalArgumentException("Lights: No slot left for another " + (point ? "point" : "directional") + " light.");
+        return Light.SIZE * (point ? points++ : NUM_POINT_LIGHTS + dirs++);
+    }
+
+    // uploads what changed, costs nothing when no light moved
+    public void bind() {
+        block.bind();
+    }
+
+    public void delete() {
+        block.delete();
+    }
+}
@@ -1,112 +1,135 @@
 package com.sam.maze;
-import java.util.Arrays;
 import java.util.Random;
 
-public class Maze {
-    private final Random random;
+public class Maze implements WallLayout {
+    protected final long seed;
     protected final int width, height;
-    protected boolean [] horizontal, vertical, visit;
+    protected final BitArray walls; // two bits per lattice point (x <= width, y <= height): wall on top, wall to the left
+    protected final BitArray visit;
 
-    private static class Pos {
-        public int x,y;
-
-        public Pos(int x, int y) {
-            this.x = x;
-            this.y = y;
-        }
+    private int topBit(int x, int y) {
+        return 2 * (y*(width+1) + x);
+    }
+    private int leftBit(int x, int y) {
+        return 2 * (y*(width+1) + x) + 1;
     }
 
-    private boolean inField(int x, int y) {
+    boolean inField(int x, int y) {
         return x >= 0 && x < width && y >= 0 && y < height;
     }
 
-    private Pos randWalk(Pos p) {
-        Pos n = new Pos(p.x, p.y);
-        do {
-            n.x = p.x; n.y = p.y;
-            switch (random.nextInt(4)) {
-                case 0 : --n.x; break;
-                case 1 : ++n.x; break;
-                case 2 : --n.y; break;
-                case 3 : ++n.y; break;
-            }
-        } while (!inField(n.x, n.y));
-        return n;
+    // removes the wall between two neighbouring cells
+    void connect(int from, int to) {
+        final int cell = Math.max(from, to);
+        if (Math.abs(to-from) == 1 && from / width == to / width)
+            walls.clear(leftBit(cell % width, cell / width)); // x direction
+        else
+            walls.clear(topBit(cell % width, cell / width)); // y direction
     }
 
-    private void connect(int from, int to) {
-        if (Math.abs(to-from) == 1)
-            vertical[(from / width)*(width+1) + from % width + (to > from ? 1 : 0)] = false; // x direction
-        else
-            horizontal[from + (to > from ? width : 0)] = false; // y direction
-    }
-
-    private void aldous_broder() {
-        int until = width * height;
-
-        Pos p = new Pos(random.nextInt(width), random.nextInt(height));
-        int i = p.y * width + p.x;
-        visit[i] = true;
-        int count = 1;
-        while (count < until) {
-            p = randWalk(p);
-            int j = p.y * width + p.x;
-            if (!visit[j]) {
-                visit[j] = true;
-                ++count;
-                connect(i, j);
-            }
-            i = j;
+    // cell reachable from cell in direction 0..3 (left, right, top, bottom), or -1
+    int step(int cell, int dir) {
+        final int x = cell % width, y = cell / width;
+        switch (dir) {
+            case 0 : return x > 0 && !left(x, y) ? cell - 1 : -1;
+            case 1 : return x < width - 1 && !right(x, y) ? cell + 1 : -1;
+            case 2 : return y > 0 && !top(x, y) ? cell - width : -1;
+            default : return y < height - 1 && !bottom(x, y) ? cell + width : -1;
         }
     }
 
-    boolean dfs(int x, int y) {
-        if (x == 0 && y == 0) return true;
-        if (visit[y*width+x]) return false;
-        visit[y*width+x] = true;
-        if (!left(x,y) && dfs(x-1,y)) return true;
-        if (!right(x,y) && dfs(x+1,y)) return true;
-        if (!top(x,y) && dfs(x,y-1)) return true;
-        if (!bottom(x,y) && dfs(x,y+1)) return true;
-        visit[y*width+x] = false;
-        return false;
+    void clearVisits() {
+        visit.fill(false);
+    }
+
+    void mark(int cell) {
+        visit.set(cell);
+    }
+
+    boolean marked(int cell) {
+        return visit.get(cell);
     }
 
     public Maze(int w, int h) {
+        this(w, h, new WilsonGenerator());
+    }
+
+    public Maze(int w, int h, long seed) {
+        this(w, h, new WilsonGenerator(), seed);
+    }
+
+    public Maze(int w, int h, MazeGenerator generator) {
+        this(w, h, generator, new Random().nextLong());
+    }
+
+    // the same seed and generator always build the same maze
+    public Maze(int w, int h, MazeGenerator generator, long seed) {
+        width = w;
+        height = h;
+        this.seed = seed;
+        walls = new BitArray(2 * (w+1) * (h+1));
+        visit = new BitArray(w * h);
+        for (int y = 0; y <= h; ++y) {
+            for (int x = 0; x <= w; ++x) {
+                if (x < w) walls.set(topBit(x, y));
+                if (y < h) walls.set(leftBit(x, y));
+            }
+        }
+        generator.generate(this, new Random(seed));
+        walls.clear(leftBit(0, 0));
+    }
+
+    // restores a saved maze
+    Maze(int w, int h, long seed, BitArray walls, BitArray visit) {
+        if (walls.size() != 2 * (w+1) * (h+1) || visit.size() != w * h)
+            throw new IllegalArgumentException("Maze: Wrong bitset sizes.");
         width = w;
         height = h;
-        random = new Random();
-        horizontal = new boolean[w * (h+1)];
-        vertical = new boolean[(w+1) * h];
-        visit = new boolean[w * h];
-        Arrays.fill(horizontal, true);
-        Arrays.fill(vertical, true);
-        aldous_broder();
-        Arrays.fill(visit, false);
-        vertical[0] = false;
+        this.seed = seed;
+        this.walls = walls;
+        this.visit = visit;
     }
 
+    // shares the walls and the marks of another maze
+    protected Maze(Maze other) {
+        this(other.width, other.height, other.seed, other.walls, other.visit);
+    }
+
+    public long getSeed() { return seed; }
+
     public void solve() {
-        vertical[0] = true;
-        Arrays.fill(visit, false);
-        visit[0] = true;
-        dfs(width-1, height-1);
-        vertical[0] = false;
+        solve(new BfsSolver());
+    }
+
+    // marks the way from the entrance to the exit
+    public boolean solve(MazeSolver solver) {
+        return solver.solve(this, width-1, height-1, 0, 0);
+    }
+
+    void setTop(int x, int y, boolean wall) {
+        walls.set(topBit(x, y), wall);
+    }
+    void setLeft(int x, int y, boolean wall) {
+        walls.set(leftBit(x, y), wall);
     }
 
+    @Override
     public boolean top(int x, int y) {
         if (x < 0 || x >= width || y < 0 || y > height)
             return false;
-        return horizontal[y*width + x];
+        return walls.get(topBit(x, y));
     }
+    @Override
     public boolean left(int x, int y) {
         if (x < 0 || x > width || y < 0 || y >= height)
             return false;
-        return vertical[y*(width+1) + x];
+        return walls.get(leftBit(x, y));
     }
+    @Override
     public boolean bottom(int x, int y) {
         return top(x,y+1);
     }
+    @Override
     public boolean right(int x, int y) {
         return left(x+1,y);
     }
@@ -129,7 +152,7 @@ public class Maze {
                 } else {
                     if (left(x,y)) System.out.print( VWALL );
                     else System.out.print( EMPTY );
-                    if (x < width) System.out.print( (visit[y * width + x] ? PATH : EMPTY) );
+                    if (x < width) System.out.print( (visit.get(y * width + x) ? PATH : EMPTY) );
                 }
             }
             System.out.print('\n');
@@ -0,0 +1,8 @@
+package com.sam.maze;
+
+import java.util.Random;
+
+// Carves the passages of a freshly walled maze, using Maze.connect() only.
+public interface MazeGenerator {
+    void generate(Maze maze, Random random);
+}
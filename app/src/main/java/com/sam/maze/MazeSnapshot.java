@@ -0,0 +1,139 @@
+package com.sam.maze;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Saved game: the maze bitsets (deflated), the seed and where the player stands.
+// Loading maps the file and inflates straight into the bitset words, nothing is regenerated.
+public class MazeSnapshot {
+    private static final int MAGIC = 0x4D415A45; // "MAZE"
+    private static final short VERSION = 1;
+    private static final byte ENDLESS = 2; // 1 is unused, only a game still being played is saved
+    private static final int MAX_DEFLATE_RATIO = 1032; // deflate never shrinks data further
+    private static final int HEADER_BYTES = 4 + 2 + 1 + 4 + 4 + 8 + 5 * 4 + 8 + 4 + 4;
+
+    final Maze maze; // null in endless mode
+    final long seed;
+    final float posX, posY, posZ, rotXY, rotZ;
+    final long elapsedMillis;
+
+    public MazeSnapshot(Maze maze, long seed, float posX, float posY, float posZ, float rotXY, float rotZ, long elapsedMillis) {
+        this.maze = maze;
+        this.seed = seed;
+        this.posX = posX;
+        this.posY = posY;
+        this.posZ = posZ;
+        this.rotXY = rotXY;
+        this.rotZ = rotZ;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public boolean isEndless() { return maze == null; }
+    public int getSize() { return maze != null ? maze.width : 0; }
+    public long getElapsedMillis() { return elapsedMillis; }
+
+    // Bytes the wall and visit bitsets of a width x height maze take, -1 if their bits don't fit in an int.
+    static long rawBytes(int width, int height) {
+        final long corners = (width + 1L) * (height + 1L); // sizes up to 2^31 can't overflow a long here
+        if (corners > Integer.MAX_VALUE / 2) return -1;
+        final long wallBits = 2 * corners, visitBits = (long) width * height;
+        return 8 * (((wallBits + 63) >>> 6) + ((visitBits + 63) >>> 6));
+    }
+
+    public void write(File file) throws IOException {
+        byte [] body = new byte[0];
+        int rawBytes = 0, bodyBytes = 0;
+        if (maze != null) {
+            final long [] walls = maze.walls.words(), visit = maze.visit.words();
+            rawBytes = 8 * (walls.length + visit.length);
+            ByteBuffer raw = ByteBuffer.allocate(rawBytes).order(ByteOrder.LITTLE_ENDIAN);
+            raw.asLongBuffer().put(walls).put(visit);
+
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            deflater.setInput(raw.array());
+            deflater.finish();
+            body = new byte[rawBytes / 4 + 64];
+            while (!deflater.finished()) {
+                if (bodyBytes == body.length)
+                    body = Arrays.copyOf(body, 2 * body.length);
+                bodyBytes += deflater.deflate(body, bodyBytes, body.length - bodyBytes);
+            }
+            deflater.end();
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putShort(VERSION).put(maze == null ? ENDLESS : 0);
+        header.putInt(maze != null ? maze.width : 0).putInt(maze != null ? maze.height : 0).putLong(seed);
+        header.putFloat(posX).putFloat(posY).putFloat(posZ).putFloat(rotXY).putFloat(rotZ);
+        header.putLong(elapsedMillis).putInt(rawBytes).putInt(bodyBytes);
+        header.flip();
+
+        // write next to the old save, then swap, so a crash never leaves half a file behind
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp); FileChannel channel = out.getChannel()) {
+            channel.write(header);
+            channel.write(ByteBuffer.wrap(body, 0, bodyBytes));
+        }
+        if (!tmp.renameTo(file))
+            throw new IOException("Couldn't replace " + file);
+    }
+
+    public static MazeSnapshot read(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r"); FileChannel channel = in.getChannel()) {
+            if (channel.size() < HEADER_BYTES)
+                throw new IOException("Not a maze snapshot: " + file);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt() != MAGIC || buffer.getShort() != VERSION)
+                throw new IOException("Not a maze snapshot: " + file);
+            final byte flags = buffer.get();
+            final int width = buffer.getInt(), height = buffer.getInt();
+            final long seed = buffer.getLong();
+            final float posX = buffer.getFloat(), posY = buffer.getFloat(), posZ = buffer.getFloat();
+            final float rotXY = buffer.getFloat(), rotZ = buffer.getFloat();
+            final long elapsed = buffer.getLong();
+            final int rawBytes = buffer.getInt(), bodyBytes = buffer.getInt();
+            if (bodyBytes != buffer.remaining())
+                throw new IOException("Truncated maze snapshot: " + file);
+            // the sizes must agree with the data that's there before anything is allocated for them,
+            // a corrupt save must not take the app down
+            final boolean endless = (flags & ENDLESS) != 0;
+            if (endless ? width != 0 || height != 0 || rawBytes != 0 || bodyBytes != 0
+                    : width <= 0 || height <= 0 || rawBytes != rawBytes(width, height) || rawBytes > (long) MAX_DEFLATE_RATIO * bodyBytes)
+                throw new IOException("Corrupt maze snapshot: " + file);
+
+            Maze maze = null;
+            if (!endless) {
+                BitArray walls = new BitArray(2 * (width+1) * (height+1)), visit = new BitArray(width * height);
+
+                byte [] body = new byte[bodyBytes], raw = new byte[rawBytes];
+                buffer.get(body);
+                Inflater inflater = new Inflater();
+                inflater.setInput(body);
+                try {
+                    if (inflater.inflate(raw) != rawBytes || !inflater.finished())
+                        throw new IOException("Corrupt maze snapshot: " + file);
+                } catch (DataFormatException exception) {
+                    throw new IOException("Corrupt maze snapshot: " + file, exception);
+                } finally {
+                    inflater.end();
+                }
+                LongBuffer longs = ByteBuffer.wrap(raw).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+                longs.get(walls.words()).get(visit.words());
+                maze = new Maze(width, height, seed, walls, visit);
+            }
+            return new MazeSnapshot(maze, seed, posX, posY, posZ, rotXY, rotZ, elapsed);
+        }
+    }
+}
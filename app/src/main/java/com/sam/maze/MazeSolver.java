@@ -0,0 +1,6 @@
+package com.sam.maze;
+
+// Marks the cells of a path between two cells in Maze.visit, the way MazeWorld renders it.
+public interface MazeSolver {
+    boolean solve(Maze maze, int fromX, int fromY, int toX, int toY);
+}
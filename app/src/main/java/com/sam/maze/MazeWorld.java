@@ -1,71 +1,73 @@
 package com.sam.maze;
 
 import static java.lang.Math.abs;
-import static java.lang.Math.round;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.opengl.GLES32;
 import android.opengl.Matrix;
 
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
-public class MazeWorld extends Maze {
+public class MazeWorld extends Maze implements AutoCloseable {
     private final static float WALL_WIDTH = 0.05f, WALL_REPEATS = 3.2f;
-
-    private final Model wall, floor, tower, sky, earth; // ball
+    private final static boolean INSTANCING = true; // false: bake walls and towers per region
+    private final static int MIRROR_VIEW_LIMIT = 8; // tiles, the mirror is small and shows what's already been passed
+    // levels of detail: columns by segment width from that many cells on, balls by subdivisions from that many radii on
+    private final static float [] TOWER_LOD_RES = { 1.0f / 32, 1.0f / 12 }, TOWER_LOD_FROM = { 2.0f, 5.0f };
+    private final static int [] SKY_LOD_RES = { 4, 3 };
+    private final static float [] SKY_LOD_FROM = { 3.0f, 6.0f };
+
+    private final EndlessMaze endless; // null for a finite maze
+    private final Model [] walls, towers; // instanced, one each for the view ahead and the mirror
+    private final Model floor, sky, earth; // ball
+    private final MeshBuilder builder;
+    private final Map<Long, Model[]> regions = new HashMap<>(); // walls and towers, keyed like the chunks
+    private long centerRegion;
+    private Model path; // rebuilt when the marks change
+    private boolean pathChanged = true;
+    private final VisibleSet [] visible = new VisibleSet[2]; // view ahead, mirror
+    private final PortalCuller [] portals = new PortalCuller[2];
+    private final boolean [] portalsShown = new boolean[2];
+    private float [] instanceData = new float[0]; // scratch for setInstances()
+    private final float [] proj = new float[16], viewProj = new float[16];
+    // model matrices, the constant ones are set up once with the world
+    private final float [] id = new float[16], skyModel = new float[16], earthModel = new float[16], floorModel = new float[16];
+    private long floorChunk = Long.MIN_VALUE;
+    private int wallTex, wallSpec;
     private final Shader shader, bg_shader;
+    private final List<ResourceRegistry.Handle<?>> shared = new ArrayList<>(); // textures and programs, other worlds may hold them too
+    private final UniformBlock frame; // view, proj and viewPos for both shaders
+    private final DrawQueue queue = new DrawQueue();
+    private final Lights lights;
     private final Light backlight, flashlight, lamp;
-    private float rot_xy, rot_z;
-    private Vec3 pos, dir;
-    private boolean isLookingBack = false;
-    private boolean isAlive;
-
-    private Vec3 deathPos, deathDir, deathUp;
-    private long deathTime;
+    private final Camera camera;
+    private final Vec3 pos, dir; // the camera's
+    private static final Vec3 SKY_AMBIENT = new Vec3(0.4f), EARTH_AMBIENT = new Vec3(0.1f, 0.07f, 0.072f);
+    private static final Vec3 EARTH_LIGHT = new Vec3(3.0f), EARTH_LIGHT_DIR = new Vec3(-1.0f, -1.0f, -2.0f);
+    private static final Vec3 EARTH_POS = new Vec3(-1.1f, -2.5f, 3.0f); // a unit ball, the sky is around the viewer
 
     private static float radians(float deg) {
         return deg * (float)Math.PI / 180.0f;
     }
 
     private void setView() {
-        final double deathDuration = 3000.0; // death takes 3s
-        float [] view = new float[16];
-        Vec3 viewDir = new Vec3(dir.x * (isLookingBack ? -1 : 1), dir.y * (isLookingBack ? -1 : 1), dir.z);
-        float a = (float) Math.sqrt(1.0f - viewDir.z * viewDir.z);
-        Vec3 viewUp = new Vec3(-viewDir.z * viewDir.x / a, -viewDir.z * viewDir.y / a, a);
-        Vec3 viewPos = new Vec3(pos);
-
-        if (!isAlive) {
-            long time = System.currentTimeMillis();
-            if (time - deathTime < deathDuration) {
-                float phase = (float) (0.5 * Math.sin(Math.min((double) (time - deathTime) / deathDuration * Math.PI, Math.PI) - Math.PI / 2.0) + 0.5);
-                viewPos = viewPos.mul(1.0f - phase).add(deathPos.mul(phase));
-                viewDir = viewDir.mul(1.0f - phase).add(deathDir.mul(phase));
-                viewUp = viewUp.mul(1.0f - phase).add(deathUp.mul(phase));
-            } else {
-                pos = viewPos = deathPos;
-                dir = viewDir = deathDir;
-                viewUp = deathUp;
-            }
-        }
-
-        final Vec3 viewCenter = viewPos.add(viewDir);
-        Matrix.setLookAtM(view, 0, viewPos.x, viewPos.y, viewPos.z, viewCenter.x, viewCenter.y, viewCenter.z, viewUp.x, viewUp.y, viewUp.z);
-
-        shader.uniform("view", view);
-        bg_shader.uniform("view", view);
-        shader.uniform("viewPos", viewPos);
+        camera.update(System.currentTimeMillis());
+        frame.put(UniformBlock.VIEW, camera.view);
+        frame.put(UniformBlock.VIEW_POS, camera.viewPos.x, camera.viewPos.y, camera.viewPos.z);
     }
 
     private void setProjection(int w, int h) {
-        float [] mat = new float[16];
         if (h == 0) return;
         float ratio = (float)w / h;
-        // Matrix.frustumM(mat, 0, -ratio,ratio,-1,1,0.1f, 150.0f);
-        Matrix.perspectiveM(mat, 0, 45.0f, ratio, 0.02f, 100.0f);
-        shader.uniform("proj", mat);
-        bg_shader.uniform("proj", mat);
+        // Matrix.frustumM(proj, 0, -ratio,ratio,-1,1,0.1f, 150.0f);
+        Matrix.perspectiveM(proj, 0, 45.0f, ratio, 0.02f, 100.0f);
+        frame.put(UniformBlock.PROJ, proj);
     }
 
     public void resize(int scr_w, int scr_h) {
@@ -73,224 +75,250 @@ public class MazeWorld extends Maze {
     }
 
     public void walk(float step, float strafe) {
-        if (!isAlive) {
-            deathPos.z = Math.max(2.0f, Math.min(deathPos.z - step, 10.0f));
-            return;
-        }
-
-        step = Math.max(-0.1f, Math.min(0.1f, step));
-
-        Vec3 way = new Vec3(step * dir.x, step * dir.y, 0.0f);
-        if (strafe != 0.0f) {
-            strafe = Math.max(-0.1f, Math.min(0.1f, strafe));
-            way = way.add(new Vec3(strafe * dir.y, -strafe * dir.x, 0.0f));
-        }
-
-        final float w = 0.3f;
-
-        // simple collision detection
-        float xDiff = pos.x-round(pos.x);
-        float yDiff = pos.y-round(pos.y);
-
-        if (abs(xDiff) <= w)
-            if (left(round(pos.x),(int)pos.y) && (pos.x-round(pos.x))*way.x < 0) way.x = 0;
-        if (abs(yDiff) <= w)
-            if (top((int)pos.x,round(pos.y)) && (pos.y-round(pos.y))*way.y < 0) way.y = 0;
-        if (abs(yDiff) <= w*0.7f && abs(xDiff) <= w*0.7f) {
-            // "slice" into wall
-            if (left(round(pos.x),round(pos.y)-(yDiff>0?1:0)) && (pos.y-round(pos.y))*way.y < 0) way.y = 0;
-            if (top(round(pos.x)-(xDiff>0?1:0),round(pos.y)) && (pos.x-round(pos.x))*way.x < 0) way.x = 0;
-        }
-
-        pos = pos.add(way);
+        camera.walk(step, strafe);
     }
 
     public void turn(float horizontal, float vertical) {
-        if (isAlive) {
-            rot_z = Math.max(radians(-89.5f), Math.min(radians(89.5f), rot_z + vertical));
-            rot_xy += horizontal;
-            dir = new Vec3((float)(Math.cos(rot_xy) * Math.cos(rot_z)), (float)(Math.sin(rot_xy) * Math.cos(rot_z)), (float)Math.sin(rot_z));
-        } else {
-            deathPos.x = Math.max(Math.min((float)width, deathPos.x - horizontal * deathUp.y + vertical * deathUp.x), 0.0f);
-            deathPos.y = Math.max(Math.min((float)height, deathPos.y + vertical * deathUp.y + horizontal * deathUp.x), 0.0f);
-        }
+        camera.turn(horizontal, vertical);
     }
 
     public void die() {
-        isAlive = false;
-        deathPos = pos.add(new Vec3(0.0f, 0.0f, 5.0f));
-        // deathUp = new Vec3(dir);
-        deathUp = (new Vec3(dir.x, dir.y, 0.0f)).normalize();
-        deathDir = new Vec3(0.1f*deathUp.x, 0.1f*deathUp.y, -1.0f);
-        deathTime = System.currentTimeMillis();
-        solve();
+        camera.fall(System.currentTimeMillis());
+        if (endless == null) {
+            solve();
+            pathChanged = true;
+        }
     }
 
-    public void rearView() {
-        isLookingBack = !isLookingBack;
+    // true while frames change without input
+    public boolean animating() {
+        return camera.flying();
     }
 
     public boolean inside() {
+        if (endless != null) return true; // there is no way out
         return pos.x >= 0.0f && pos.x < (float)width && pos.y >= 0.0f && pos.y < (float)height;
     }
 
     public void draw() {
-        if (isAlive) {
-            flashlight.move(pos.add(new Vec3(0.0f, 0.0f, 0.1f)), shader);
-            flashlight.turn(dir, shader);
+        draw(false, 1.0f);
+    }
+
+    // The view behind the player for the rear mirror: a shorter view distance, culled on its own from the
+    // reversed direction. Detail is the share of the screen it gets, the levels of detail go by it.
+    public void drawMirror(float detail) {
+        camera.lookingBack = true;
+        draw(true, detail);
+        camera.lookingBack = false;
+    }
+
+    private void draw(boolean mirror, float detail) {
+        final float farther = 1.0f / detail; // how much smaller things look than on screen
+        if (camera.alive) {
+            flashlight.move(pos.x, pos.y, pos.z + 0.1f);
+            flashlight.turn(dir);
         } else {
-            flashlight.turn(new Vec3(0.0f, 0.0f, -1.0f), shader);
+            flashlight.turn(0.0f, 0.0f, -1.0f);
         }
-        backlight.apply(shader);
-        lamp.apply(shader);
+        lights.bind();
         setView();
-
-        float [] id = new float[16];
-        float [] di = new float[16];
-        Matrix.setIdentityM(id, 0);
-        Matrix.rotateM(di, 0, id, 0, 90.0f, 0.0f, 0.0f, 1.0f);
-
-        float [] model = new float[16];
-        float [] normal = new float[16];
+        frame.bind();
+        // once a frame, wherever the view is: walking, flying up after death or looking around from above
+        if (endless != null && !mirror) endless.retain(camera.viewPos.x, camera.viewPos.y);
 
         // sky
-        Matrix.scaleM(model, 0, id, 0, 30.0f, 30.0f, 30.0f);
-        bg_shader.uniform("model", model);
-        bg_shader.uniform("ambient", new Vec3(0.4f));
-        bg_shader.uniform("dirLightColor", new Vec3(0.0f));
+        bg_shader.uniform("model", skyModel);
+        bg_shader.uniform("ambient", SKY_AMBIENT);
+        bg_shader.uniform("dirLightColor", Vec3.ZERO);
         GLES32.glFrontFace(GLES32.GL_CW); // change orientation: view from inside of the ball
-        sky.draw(bg_shader);
+        sky.lodAt(farther).draw(bg_shader); // seen from its center, one radius away
         GLES32.glFrontFace(GLES32.GL_CCW);
 
         // earth
-        Matrix.translateM(model, 0, id, 0, -1.1f, -2.5f, 3.0f);
-        Matrix.rotateM(model, 0, 130.0f, 1.0f, 1.0f, 1.0f);
-        bg_shader.uniform("model", model);
-        bg_shader.uniform("ambient", new Vec3(0.1f, 0.07f, 0.072f));
-        bg_shader.uniform("dirLightColor", new Vec3(3.0f));
-        bg_shader.uniform("dirLightDirection", new Vec3(-1.0f, -1.0f, -2.0f));
-        earth.draw(bg_shader);
-
-        final int view_limit = isAlive ? 15 : 20;
-
-        for (int y=0; y <= height; ++y) {
-            for (int x=0; x <= width; ++x) {
-                if (abs(pos.x-x)+abs(pos.y-y) > view_limit) continue;
-                if (y < height && x < width && visit[y*width+x]) {
-                    Matrix.translateM(model, 0, id, 0, (float)x, (float)y, -0.8f * WALL_WIDTH);
-                    Matrix.rotateM(model, 0, -90.0f, 1.0f, 0.0f, 0.0f);
-                    Matrix.rotateM(normal, 0, id, 0, -90.0f, 1.0f, 0.0f, 0.0f);
-                    shader.uniform("model", model);
-                    shader.uniform("normal", normal);
-                    wall.draw(shader);
+        bg_shader.uniform("model", earthModel);
+        bg_shader.uniform("ambient", EARTH_AMBIENT);
+        bg_shader.uniform("dirLightColor", EARTH_LIGHT);
+        bg_shader.uniform("dirLightDirection", EARTH_LIGHT_DIR);
+        earth.lodAt(farther * EARTH_POS.abs()).draw(bg_shader);
+
+        // walls and towers of the tiles in sight, baked meshes are already in place
+        final int view_limit = mirror ? MIRROR_VIEW_LIMIT : camera.alive ? 15 : 20;
+        final int px = (int)Math.floor(pos.x), py = (int)Math.floor(pos.y);
+        final int R = MeshBuilder.REGION_SIZE;
+        final int rx = Math.floorDiv(px, R), ry = Math.floorDiv(py, R);
+        final int pass = mirror ? 1 : 0;
+        Matrix.multiplyMM(viewProj, 0, proj, 0, camera.view, 0);
+        boolean changed = visible[pass].update(viewProj, pos.x, pos.y, view_limit);
+
+        if (INSTANCING) {
+            // below the wall tops, only walls seen through open edges are drawn
+            final boolean occluded = camera.alive;
+            if (occluded) changed = portals[pass].update(pos.x, pos.y, view_limit, visible[pass]);
+
+            // the instances only change when walls come into sight or leave it
+            if (changed || occluded != portalsShown[pass]) {
+                if (occluded) {
+                    // this happens whenever the player enters another cell, the instance data is reused
+                    instanceData = MeshBuilder.instanceWalls(portals[pass], instanceData);
+                    walls[pass].setInstances(instanceData, portals[pass].wallCount());
+                    instanceData = MeshBuilder.instanceTowers(portals[pass], instanceData);
+                    towers[pass].setInstances(instanceData, portals[pass].towerCount(), pos.x, pos.y, farther);
+                } else {
+                    walls[pass].setInstances(MeshBuilder.instanceWalls(this, visible[pass]));
+                    final float [] data = MeshBuilder.instanceTowers(this, visible[pass]);
+                    towers[pass].setInstances(data, data.length / Model.floatsPerInstance, pos.x, pos.y, farther);
                 }
+                portalsShown[pass] = occluded;
+            }
+            // towers keep their level until the instances change, that's within a cell of the distance
+            queue.add(walls[pass], id);
+            for (int level = 0; level < towers[pass].lodCount(); ++level)
+                queue.add(towers[pass].lod(level), id);
+        } else {
+            if (endless != null) evictRegions(rx, ry, view_limit / R + 2);
+            for (int i = 0; i < visible[pass].size(); ++i) {
+                final Model [] region = region(visible[pass].tileX(i), visible[pass].tileY(i));
+                if (region == null) continue;
+                queue.add(region[0], id);
+                queue.add(region[1], id);
+            }
+        }
 
-                if (top(x,y)) {
-                    Matrix.translateM(model,0, id, 0, x, y, 0.0f);
-                    // Matrix.scaleM(model, 0, 1.01f, 1.01f, 1.0f);
-                    shader.uniform("normal", id);
-                    shader.uniform("model", model);
-                    wall.draw(shader);
-                }
-                if (left(x,y)) {
-                    Matrix.translateM(model,0, di, 0, y, -x, 0.0f);
-                    // Matrix.scaleM(model, 0, 1.01f, 1.01f, 1.0f);
-                    shader.uniform("normal", di);
-                    shader.uniform("model", model);
-                    wall.draw(shader);
-                }
-                if ((top(x-1,y) || (top(x,y))) && (left(x,y) || left(x,y-1))) {
-                    Matrix.translateM(model,0, id, 0, x, y, 0.0f);
-                    shader.uniform("normal", id);
-                    shader.uniform("model", model);
-                    tower.draw(shader);
-                }
+        if (endless == null) {
+            if (pathChanged) {
+                if (path != null) path.delete();
+                path = new Model(builder.bakePath(this));
+                path.setTextures(wallTex, wallSpec, 0.3f);
+                pathChanged = false;
             }
+            queue.add(path, id);
         }
 
-        shader.uniform("model", id);
-        shader.uniform("normal", id);
-        floor.draw(shader);
+        if (endless != null) {
+            // the floor follows the player chunk by chunk, whole units keep the texture seamless
+            final int C = EndlessMaze.CHUNK_SIZE;
+            final int cx = Math.floorDiv(px, C), cy = Math.floorDiv(py, C);
+            if (EndlessMaze.key(cx, cy) != floorChunk) {
+                Matrix.translateM(floorModel, 0, id, 0, (float)(C * (cx - 1)), (float)(C * (cy - 1)), 0.0f);
+                floorChunk = EndlessMaze.key(cx, cy);
+            }
+            queue.add(floor, floorModel);
+        } else {
+            queue.add(floor, id);
+        }
+
+        // everything with lighting, grouped by textures and material
+        queue.submit(shader, id, RenderState.get());
     }
 
-    private static Model.Vertex [] makeColumn(float r, float res) {
-        final float top = 1.02f;
-        final float pi = (float)Math.PI;
-        final int [] zigzag = {0,0,1,0,0,1,0,1,1,0,1,1};
+    private <T> T share(ResourceRegistry.Handle<T> handle) {
+        shared.add(handle);
+        return handle.get();
+    }
+
+    // Deletes the world's own buffers and gives up its share of textures and programs. GL thread only.
+    @Override
+    public void close() {
+        for (Model [] region : regions.values())
+            for (Model m : region) m.delete();
+        regions.clear();
+        for (Model m : walls) if (m != null) m.delete();
+        for (Model m : towers) if (m != null) m.delete();
+        if (path != null) path.delete();
+        path = null;
+        floor.delete();
+        sky.delete(); // and its levels, the earth draws their buffers
+        frame.delete();
+        lights.delete();
+        for (ResourceRegistry.Handle<?> handle : shared) handle.close();
+        shared.clear();
+    }
 
-        int l = (int)(1.0/res);
+    private Model [] region(int rx, int ry) {
+        final long key = EndlessMaze.key(rx, ry);
+        Model [] region = regions.get(key);
+        if (region == null && endless != null) {
+            // endless regions are baked as they come into sight
+            final int R = MeshBuilder.REGION_SIZE;
+            region = upload(builder.bakeWalls(endless, rx * R, ry * R, (rx + 1) * R, (ry + 1) * R),
+                    builder.bakeTowers(endless, rx * R, ry * R, (rx + 1) * R, (ry + 1) * R));
+            regions.put(key, region);
+        }
+        return region;
+    }
 
-        Model.Vertex [] data = new Model.Vertex[9*l];
+    private Model [] upload(float [] walls, float [] towers) {
+        Model [] region = { new Model(walls), new Model(towers) };
+        region[0].setTextures(wallTex, wallSpec, 0.3f);
+        region[1].setTextures(wallTex, wallSpec, 0.55f);
+        return region;
+    }
 
-        for (int i=0; i < l; ++i) {
-            for (int k=0; k < 6; ++k) {
-                float u = (i+zigzag[2*k])  *res;
-                float phi = u*2.0f*pi;
-                float x = r * (float)Math.cos(phi);
-                float y = r * (float)Math.sin(phi);
-                float z = zigzag[2*k+1]*top;
-                data[6*i+k] = new Model.Vertex(new Vec3(x,y,z), new Vec3(x,y,0), new Vec2(WALL_REPEATS*u, WALL_REPEATS*z));
+    // drops endless regions out of reach once the player enters another region
+    private void evictRegions(int rx, int ry, int keep) {
+        final long center = EndlessMaze.key(rx, ry);
+        if (center == centerRegion && !regions.isEmpty()) return;
+        centerRegion = center;
+        Iterator<Map.Entry<Long, Model[]>> it = regions.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<Long, Model[]> entry = it.next();
+            final int x = (int)(entry.getKey() >> 32), y = (int)(long)entry.getKey();
+            if (abs(x - rx) > keep || abs(y - ry) > keep) {
+                for (Model m : entry.getValue()) m.delete();
+                it.remove();
             }
         }
-        data[6*l] = new Model.Vertex(new Vec3(1.0f,0.0f,top), new Vec3(0.0f,0.0f,top), new Vec2(1.0f,0.0f));
-
-        for (int i=0; i < l; ++i) {
-            float phi = -2.0f*i*res*pi;
-            float x = r * (float)Math.cos(phi);
-            float y = r * (float)Math.sin(phi);
-            data[6*l+3*i+1] = new Model.Vertex(new Vec3(0.0f,0.0f,top), new Vec3(0.0f,0.0f,top), new Vec2(0.0f,0.0f));
-            data[6*l+3*i+2] = new Model.Vertex(new Vec3(x,y,top), new Vec3(0.0f,0.0f,top), new Vec2(WALL_REPEATS*x,WALL_REPEATS*y));
-            if (i < l-1)
-                data[6*l+3*i+3] = new Model.Vertex(new Vec3(x,y,top), new Vec3(0.0f,0.0f,top), new Vec2(WALL_REPEATS*x,WALL_REPEATS*y));
-        }
+    }
 
-        return data;
+    @Override
+    public boolean top(int x, int y) {
+        return endless != null ? endless.top(x, y) : super.top(x, y);
+    }
+    @Override
+    public boolean left(int x, int y) {
+        return endless != null ? endless.left(x, y) : super.left(x, y);
     }
 
-    private static Model.Vertex stretch(Model.Vertex a, Model.Vertex b) {
-        Model.Vertex c = new Model.Vertex(a.position.add(b.position).mul(0.5f), a.normal.add(b.normal).mul(0.5f), a.texCoord.add(b.texCoord).mul(0.5f));
-        c.position = c.position.mul(1.0f / (float)c.position.abs());
-        c.normal = c.normal.mul(1.0f / (float)c.normal.abs());
-        if (b.texCoord.y == 0.0f || b.texCoord.y == 1.0f) {
-            c.texCoord.x = a.texCoord.x;
-        } else if  (a.texCoord.y == 0.0f || a.texCoord.y == 1.0f) {
-            c.texCoord.x = b.texCoord.x;
-        }
-        return c;
+    public interface Progress {
+        void onProgress(float done); // 0..1, called on the loading thread
     }
-    private static Model.Vertex [] makeBall(int res) {
-        Queue<Model.Vertex> q = new LinkedList<>();
-        for (int i = 0; i < 4; ++i) {
-            boolean even = i % 2 == 0, big = i > 1;
-            Vec3 leftVec = new Vec3(even ? (big ? 1.0f : -1.0f) : 0.0f, even ? 0.0f : (big ? -1.0f : 1.0f), 0.0f);
-            Vec3 rightVec = new Vec3(even ? 0.0f : (big ? 1.0f : -1.0f), even ? (big ? 1.0f : -1.0f) : 0.0f, 0.0f);
-            Model.Vertex left = new Model.Vertex(leftVec, leftVec, new Vec2(0.25f+0.25f*i, 0.5f));
-            Model.Vertex right = new Model.Vertex(rightVec, rightVec, new Vec2(0.25f*i, 0.5f));
-            q.add(new Model.Vertex(new Vec3(0.0f, 0.0f, 1.0f), new Vec3(0.0f, 0.0f, 1.0f), new Vec2(0.125f+0.25f*i, 0.0f)));
-            q.add(left); q.add(right);
-            q.add(new Model.Vertex(new Vec3(0.0f, 0.0f, -1.0f), new Vec3(0.0f, 0.0f, -1.0f), new Vec2(0.125f+0.25f*i, 1.0f)));
-            q.add(right); q.add(left);
-        }
 
-        for (int i = 0; i < res; ++i) {
-            int n = q.size() / 3;
-            for (int k = 0; k < n; ++k) {
-                Model.Vertex a = q.remove();
-                Model.Vertex b = q.remove();
-                Model.Vertex c = q.remove();
-                q.add(a); q.add(stretch(a, b)); q.add(stretch(a, c));
-                q.add(stretch(a, b)); q.add(b); q.add(stretch(b, c));
-                q.add(stretch(a, c)); q.add(stretch(b, c)); q.add(c);
-                q.add(stretch(a, c)); q.add(stretch(a, b)); q.add(stretch(b, c));
-            }
+    // Everything a MazeWorld needs that can be built without a GL context.
+    public static class Blueprint {
+        private final Maze maze;
+        private final EndlessMaze endless; // null for a finite maze
+        private final MazeSnapshot snapshot; // null for a new game
+        private float [] wallData, towerData, floorData;
+        private Mesh wall, tower, sky; // indexed, for the models drawn as they are
+        private Mesh [] towerLods, skyLods;
+        private MeshBuilder builder;
+        private final Map<Long, float[][]> regions = new HashMap<>(); // finite maze only
+        private final Map<Integer, Bitmap> bitmaps = new HashMap<>();
+        private final Map<Integer, KtxTexture> compressed = new HashMap<>();
+
+        private Blueprint(Maze maze, EndlessMaze endless, MazeSnapshot snapshot) {
+            this.maze = maze;
+            this.endless = endless;
+            this.snapshot = snapshot;
         }
-
-        return q.toArray(new Model.Vertex[0]);
     }
-    public MazeWorld(Context context, int width, int height, int scr_w, int scr_h) {
-        super(width, height);
 
-        isAlive = true;
+    private static final int [] TEXTURES = { R.drawable.wall, R.drawable.wall_spec, R.drawable.floor, R.drawable.floor_spec, R.drawable.sky, R.drawable.earth };
+
+    // Generates the maze, builds the vertex arrays and decodes the textures. Doesn't touch GL,
+    // so it runs on a worker thread. Size 0 starts an endless maze, a snapshot continues a saved game.
+    public static Blueprint prepare(Context context, int size, MazeSnapshot snapshot, Progress progress) {
+        progress.onProgress(0.0f);
+        final Blueprint b;
+        if (snapshot != null && snapshot.isEndless())
+            b = new Blueprint(new Maze(1, 1), new EndlessMaze(snapshot.seed), snapshot); // the base maze stays unused
+        else if (snapshot != null)
+            b = new Blueprint(snapshot.maze, null, snapshot);
+        else if (size == 0)
+            b = new Blueprint(new Maze(1, 1), new EndlessMaze(new Random().nextLong()), null);
+        else
+            b = new Blueprint(new Maze(size, size), null, null);
+        progress.onProgress(0.4f);
 
         final int FLOOR_REPEATS = 4;
         final float WALL_CORNER_F = 0.015f;
@@ -390,10 +418,12 @@ public class MazeWorld extends Maze {
 
         };
 
-        // Floor data
+        // Floor data, endless mode: 3x3 chunks around the player
+        final float floorW = b.endless != null ? 3 * EndlessMaze.CHUNK_SIZE : b.maze.width;
+        final float floorH = b.endless != null ? 3 * EndlessMaze.CHUNK_SIZE : b.maze.height;
         final float [][] floorPos = {
-                {0.0f, 0.0f, 0.0f}, {width*1.0f, 0.0f, 0.0f}, {width*1.0f, height*1.0f, 0.0f},
-                {0.0f, 0.0f, 0.0f}, {width*1.0f, height*1.0f, 0.0f}, {0.0f, height*1.0f, 0.0f}
+                {0.0f, 0.0f, 0.0f}, {floorW, 0.0f, 0.0f}, {floorW, floorH, 0.0f},
+                {0.0f, 0.0f, 0.0f}, {floorW, floorH, 0.0f}, {0.0f, floorH, 0.0f}
         };
 
         final float [][] floorNorm = {
@@ -402,38 +432,139 @@ public class MazeWorld extends Maze {
         };
 
         final float [][] floorTex = {
-                {0.0f, 0.0f}, {FLOOR_REPEATS*width*1.0f, 0.0f}, {FLOOR_REPEATS*width*1.0f, FLOOR_REPEATS*height*1.0f},
-                {0.0f, 0.0f}, {FLOOR_REPEATS*width*1.0f, FLOOR_REPEATS*height*1.0f}, {0.0f, FLOOR_REPEATS*height*1.0f}
+                {0.0f, 0.0f}, {FLOOR_REPEATS*floorW, 0.0f}, {FLOOR_REPEATS*floorW, FLOOR_REPEATS*floorH},
+                {0.0f, 0.0f}, {FLOOR_REPEATS*floorW, FLOOR_REPEATS*floorH}, {0.0f, FLOOR_REPEATS*floorH}
         };
 
+        // baked towers are copied many times over, a coarser column keeps big mazes in memory
+        b.wallData = Model.pack(wallPos, wallNorm, wallTex);
+        b.tower = Mesh.column(0.10f, INSTANCING ? 0.01f : 0.0625f, WALL_REPEATS).optimized();
+        b.towerData = b.tower.expand();
+        b.wall = Mesh.weld(b.wallData).optimized();
+        b.builder = new MeshBuilder(b.wallData, b.towerData, -0.8f * WALL_WIDTH);
+        b.floorData = Model.pack(floorPos, floorNorm, floorTex);
+        b.sky = Mesh.ball(5).optimized();
+        b.towerLods = new Mesh[TOWER_LOD_RES.length];
+        for (int level = 0; level < b.towerLods.length; ++level)
+            b.towerLods[level] = Mesh.column(0.10f, TOWER_LOD_RES[level], WALL_REPEATS).optimized();
+        b.skyLods = new Mesh[SKY_LOD_RES.length];
+        for (int level = 0; level < b.skyLods.length; ++level)
+            b.skyLods[level] = Mesh.ball(SKY_LOD_RES[level]).optimized();
+        progress.onProgress(0.5f);
+
+        if (b.endless == null && !INSTANCING) {
+            final int R = MeshBuilder.REGION_SIZE;
+            final int n = b.maze.width / R + 1, m = b.maze.height / R + 1;
+            for (int ry = 0; ry < m; ++ry) {
+                for (int rx = 0; rx < n; ++rx) {
+                    b.regions.put(EndlessMaze.key(rx, ry), new float[][] {
+                            b.builder.bakeWalls(b.maze, rx * R, ry * R, (rx + 1) * R, (ry + 1) * R),
+                            b.builder.bakeTowers(b.maze, rx * R, ry * R, (rx + 1) * R, (ry + 1) * R) });
+                }
+                progress.onProgress(0.5f + 0.2f * (ry + 1) / m);
+            }
+        }
+        progress.onProgress(0.7f);
+
+        for (int i = 0; i < TEXTURES.length; ++i) {
+            if (TextureManager.get().has(TEXTURES[i])) continue; // kept from an earlier world
+            final KtxTexture compressed = TextureManager.map(context, TEXTURES[i]);
+            if (compressed != null)
+                b.compressed.put(TEXTURES[i], compressed);
+            else
+                b.bitmaps.put(TEXTURES[i], TextureManager.decode(context, TEXTURES[i]));
+            progress.onProgress(0.7f + 0.3f * (i + 1) / TEXTURES.length);
+        }
+        return b;
+    }
+
+    public MazeSnapshot snapshot(long elapsedMillis) {
+        return new MazeSnapshot(endless != null ? null : this, endless != null ? endless.getSeed() : seed,
+                pos.x, pos.y, pos.z, camera.rotXY, camera.rotZ, elapsedMillis);
+    }
+
+    // Uploads a prepared world, GL thread only.
+    public MazeWorld(Context context, Blueprint blueprint, int scr_w, int scr_h) {
+        super(blueprint.maze);
+        this.endless = blueprint.endless;
+
         // Initial position and direction
-        pos = new Vec3((float)width-0.5f, (float)height-0.5f, 0.5f);
-        rot_xy = radians(-135.0f);
-        rot_z = 0.0f;
+        final float startX = endless != null ? EndlessMaze.CHUNK_SIZE / 2 + 0.5f : (float)width-0.5f;
+        final float startY = endless != null ? EndlessMaze.CHUNK_SIZE / 2 + 0.5f : (float)height-0.5f;
+        camera = endless != null ? new Camera(this, 0, 0) : new Camera(this, width, height);
+        pos = camera.pos;
+        dir = camera.dir;
+        camera.place(startX, startY, 0.5f, radians(-135.0f), 0.0f);
+
+        Matrix.setIdentityM(id, 0);
+        Matrix.scaleM(skyModel, 0, id, 0, 30.0f, 30.0f, 30.0f);
+        Matrix.translateM(earthModel, 0, id, 0, EARTH_POS.x, EARTH_POS.y, EARTH_POS.z);
+        Matrix.rotateM(earthModel, 0, 130.0f, 1.0f, 1.0f, 1.0f);
 
         // Load shader with and w/o lighting
-        shader = new Shader(context, "vertex.glsl", "frag.glsl");
-        bg_shader = new Shader(context, "bg_vertex.glsl", "bg_frag.glsl");
+        shader = share(Shader.acquire(context, "vertex.glsl", "frag.glsl"));
+        bg_shader = share(Shader.acquire(context, "bg_vertex.glsl", "bg_frag.glsl"));
+        frame = new UniformBlock(UniformBlock.FRAME, UniformBlock.FRAME_SIZE);
+
+        // Upload all textures and models
+        final TextureManager textures = TextureManager.get();
+        Map<Integer, Integer> tex = new HashMap<>();
+        for (Map.Entry<Integer, Bitmap> entry : blueprint.bitmaps.entrySet())
+            textures.upload(entry.getKey(), entry.getValue());
+        for (Map.Entry<Integer, KtxTexture> entry : blueprint.compressed.entrySet())
+            textures.upload(entry.getKey(), entry.getValue());
+        blueprint.bitmaps.clear();
+        blueprint.compressed.clear();
+        for (int id : TEXTURES) tex.put(id, share(textures.acquire(context, id)));
+
+        wallTex = tex.get(R.drawable.wall);
+        wallSpec = tex.get(R.drawable.wall_spec);
+        builder = blueprint.builder;
+        for (Map.Entry<Long, float[][]> entry : blueprint.regions.entrySet())
+            regions.put(entry.getKey(), upload(entry.getValue()[0], entry.getValue()[1]));
+        blueprint.regions.clear();
+        walls = new Model[2];
+        towers = new Model[2];
+        for (int pass = 0; pass < 2; ++pass) {
+            visible[pass] = new VisibleSet(INSTANCING ? VisibleSet.TILE_SIZE : MeshBuilder.REGION_SIZE);
+            if (endless == null) visible[pass].setBounds(0, 0, width + 1, height + 1);
+            portals[pass] = new PortalCuller(this);
+            if (INSTANCING) {
+                walls[pass] = new Model(blueprint.wall);
+                walls[pass].setTextures(wallTex, wallSpec, 0.3f);
+                towers[pass] = new Model(blueprint.tower);
+                towers[pass].setTextures(wallTex, wallSpec, 0.55f);
+                for (int level = 0; level < blueprint.towerLods.length; ++level)
+                    towers[pass].addLod(new Model(blueprint.towerLods[level]), TOWER_LOD_FROM[level]);
+                walls[pass].setInstances(new float[0]); // filled once tiles come into sight
+                towers[pass].setInstances(new float[0], 0, 0.0f, 0.0f, 1.0f);
+            }
+        }
 
-        // Load all models
-        wall = new Model(context, wallPos, wallNorm, wallTex, R.drawable.wall, R.drawable.wall_spec, 0.3f);
-        floor = new Model(context, floorPos, floorNorm, floorTex, R.drawable.floor, R.drawable.floor_spec, 0.4f);
-        sky = new Model(context, makeBall(5), R.drawable.sky, R.drawable.sky, 0.0f);
-        tower = new Model(context, makeColumn(0.10f, 0.01f), R.drawable.wall, R.drawable.wall_spec, 0.55f);
-        earth = new Model(context, sky, R.drawable.earth, R.drawable.earth, 0.0f);
+        floor = new Model(blueprint.floorData);
+        floor.setTextures(tex.get(R.drawable.floor), tex.get(R.drawable.floor_spec), 0.4f);
+        sky = new Model(blueprint.sky);
+        sky.setTextures(tex.get(R.drawable.sky), tex.get(R.drawable.sky), 0.0f);
+        for (int level = 0; level < blueprint.skyLods.length; ++level)
+            sky.addLod(new Model(blueprint.skyLods[level]), SKY_LOD_FROM[level]);
+        earth = new Model(sky);
+        earth.setTextures(tex.get(R.drawable.earth), tex.get(R.drawable.earth), 0.0f);
 
         // lights
-        Light.reset();
-        backlight = new Light(new Vec3(0.25f), new Vec3(0.35f), new Vec3(0.15f));
-        backlight.turn(new Vec3(0.4f, 0.2f, -1.0f), shader);
-        lamp = new Light(new Vec3(0.05f), new Vec3(0.7f), new Vec3(0.35f), 1.0f, 0.09f, 0.032f, -1.0f);
-        lamp.move(new Vec3((float)width-0.5f, (float)height-0.5f, 1.0f), shader);
-        flashlight = new Light(new Vec3(0.0f), new Vec3(0.8f), new Vec3(0.4f), 1.0f, 0.18f, 0.096f, (float) Math.cos(radians(12.5f)));
+        lights = new Lights();
+        backlight = new Light(lights, new Vec3(0.25f), new Vec3(0.35f), new Vec3(0.15f));
+        backlight.turn(new Vec3(0.4f, 0.2f, -1.0f));
+        lamp = new Light(lights, new Vec3(0.05f), new Vec3(0.7f), new Vec3(0.35f), 1.0f, 0.09f, 0.032f, -1.0f);
+        lamp.move(new Vec3(startX, startY, 1.0f));
+        flashlight = new Light(lights, new Vec3(0.0f), new Vec3(0.8f), new Vec3(0.4f), 1.0f, 0.18f, 0.096f, (float) Math.cos(radians(12.5f)));
 
         resize(scr_w, scr_h);
-        turn(0.0f, 0.0f);
+
+        // Continue a saved game
+        final MazeSnapshot snapshot = blueprint.snapshot;
+        if (snapshot != null) camera.place(snapshot.posX, snapshot.posY, snapshot.posZ, snapshot.rotXY, snapshot.rotZ);
 
         // mark the entrance
-        visit[(height-1)*width+width-1] = true;
+        if (endless == null) mark((height-1)*width+width-1);
     }
 }
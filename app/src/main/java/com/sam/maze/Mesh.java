@@ -0,0 +1,298 @@
+package com.sam.maze;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Indexed triangles: packed vertices (see Model.pack()) that are shared between triangles.
+// The procedural shapes are built straight into arrays and cached by their parameters,
+// treat the arrays of a cached mesh as read-only.
+public class Mesh {
+    final float [] vertices;
+    final int [] indices;
+
+    private static final Map<String, Mesh> cache = new HashMap<>();
+
+    Mesh(float [] vertices, int [] indices) {
+        this.vertices = vertices;
+        this.indices = indices;
+    }
+
+    int vertexCount() { return vertices.length / Model.floatsPerVertex; }
+    int triangleCount() { return indices.length / 3; }
+
+    // one vertex per index, for consumers of plain triangle lists
+    float [] expand() {
+        final int F = Model.floatsPerVertex;
+        float [] data = new float[indices.length * F];
+        for (int i = 0; i < indices.length; ++i)
+            System.arraycopy(vertices, indices[i] * F, data, i * F, F);
+        return data;
+    }
+
+    static final int CACHE_SIZE = 16; // post-transform vertex cache entries assumed by optimized()
+    private Mesh optimized;
+
+    // Merges identical position/normal/texcoord tuples of a plain triangle list.
+    static Mesh weld(float [] triangles) {
+        final int F = Model.floatsPerVertex;
+        final int n = triangles.length / F;
+        final int [] table = new int[Integer.highestOneBit(Math.max(n, 1)) * 4]; // open addressing, at most half full
+        Arrays.fill(table, -1);
+        final int mask = table.length - 1;
+        float [] vertices = new float[triangles.length];
+        int [] indices = new int[n];
+        int count = 0;
+        for (int i = 0; i < n; ++i) {
+            int hash = 0;
+            for (int k = 0; k < F; ++k) hash = 31 * hash + Float.floatToIntBits(triangles[i*F+k] + 0.0f); // -0 is 0
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (table[slot] >= 0 && !same(vertices, table[slot], triangles, i))
+                slot = (slot + 1) & mask;
+            if (table[slot] < 0) {
+                System.arraycopy(triangles, i * F, vertices, count * F, F);
+                table[slot] = count++;
+            }
+            indices[i] = table[slot];
+        }
+        return new Mesh(Arrays.copyOf(vertices, count * F), indices);
+    }
+
+    private static boolean same(float [] a, int i, float [] b, int k) {
+        final int F = Model.floatsPerVertex;
+        for (int j = 0; j < F; ++j)
+            if (a[i*F+j] != b[k*F+j]) return false;
+        return true;
+    }
+
+    // This mesh reordered for the vertex caches, computed once per mesh.
+    synchronized Mesh optimized() {
+        if (optimized == null) optimized = tipsify(CACHE_SIZE).compact();
+        return optimized;
+    }
+
+    // Triangle order for a post-transform vertex cache of cacheSize entries, after Sander, Nehab and
+    // Barczak, "Fast Triangle Reordering for Vertex Locality and Reduced Overdraw" (Tipsify). Fans
+    // around one vertex after another, preferring a next vertex that is still in the cache.
+    Mesh tipsify(int cacheSize) {
+        final int n = vertexCount(), triangles = triangleCount();
+
+        // triangles around every vertex
+        final int [] live = new int[n], start = new int[n + 1], adjacent = new int[indices.length];
+        for (int index : indices) ++live[index];
+        for (int v = 0; v < n; ++v) start[v + 1] = start[v] + live[v];
+        final int [] fill = Arrays.copyOf(start, n);
+        for (int i = 0; i < indices.length; ++i) adjacent[fill[indices[i]]++] = i / 3;
+
+        final int [] cacheTime = new int[n], out = new int[indices.length];
+        final boolean [] emitted = new boolean[triangles];
+        final int [] deadEnd = new int[indices.length], candidates = new int[indices.length];
+        int deadEnds = 0, emittedIndices = 0, time = cacheSize + 1, cursor = 0;
+        int fan = n > 0 ? 0 : -1;
+
+        while (fan >= 0) {
+            int numCandidates = 0;
+            for (int a = start[fan]; a < start[fan + 1]; ++a) {
+                final int t = adjacent[a];
+                if (emitted[t]) continue;
+                emitted[t] = true;
+                for (int k = 0; k < 3; ++k) {
+                    final int v = indices[3*t+k];
+                    out[emittedIndices++] = v;
+                    deadEnd[deadEnds++] = v;
+                    candidates[numCandidates++] = v;
+                    --live[v];
+                    if (time - cacheTime[v] > cacheSize) cacheTime[v] = time++;
+                }
+            }
+
+            // the candidate that stays longest in the cache while its remaining triangles are fanned
+            fan = -1;
+            int best = -1;
+            for (int c = 0; c < numCandidates; ++c) {
+                final int v = candidates[c];
+                if (live[v] == 0) continue;
+                final int priority = time - cacheTime[v] + 2 * live[v] <= cacheSize ? time - cacheTime[v] : 0;
+                if (priority > best) {
+                    best = priority;
+                    fan = v;
+                }
+            }
+            // dead end: a recently used vertex with triangles left, or the next one in input order
+            while (fan < 0 && deadEnds > 0) {
+                final int v = deadEnd[--deadEnds];
+                if (live[v] > 0) fan = v;
+            }
+            while (fan < 0 && cursor < n) {
+                if (live[cursor] > 0) fan = cursor;
+                ++cursor;
+            }
+        }
+        return new Mesh(vertices, out);
+    }
+
+    // Vertices renumbered in the order the triangles first use them, unused ones dropped.
+    Mesh compact() {
+        final int F = Model.floatsPerVertex;
+        final int [] number = new int[vertexCount()];
+        Arrays.fill(number, -1);
+        final float [] data = new float[vertices.length];
+        final int [] out = new int[indices.length];
+        int count = 0;
+        for (int i = 0; i < indices.length; ++i) {
+            final int v = indices[i];
+            if (number[v] < 0) {
+                System.arraycopy(vertices, v * F, data, count * F, F);
+                number[v] = count++;
+            }
+            out[i] = number[v];
+        }
+        return new Mesh(Arrays.copyOf(data, count * F), out);
+    }
+
+    private static synchronized Mesh cached(String key) { return cache.get(key); }
+    private static synchronized Mesh cache(String key, Mesh mesh) {
+        Mesh other = cache.get(key);
+        if (other != null) return other; // built twice at once, keep one
+        cache.put(key, mesh);
+        return mesh;
+    }
+
+    // Growable vertex and index arrays.
+    private static class Builder {
+        float [] vertices;
+        int [] indices;
+        int numVertices, numIndices;
+
+        Builder(int vertices, int indices) {
+            this.vertices = new float[vertices * Model.floatsPerVertex];
+            this.indices = new int[indices];
+        }
+
+        int vertex(float x, float y, float z, float nx, float ny, float nz, float u, float v) {
+            final int F = Model.floatsPerVertex;
+            if ((numVertices + 1) * F > vertices.length) vertices = Arrays.copyOf(vertices, 2 * vertices.length + F);
+            final int o = numVertices * F;
+            vertices[o] = x; vertices[o+1] = y; vertices[o+2] = z;
+            vertices[o+3] = nx; vertices[o+4] = ny; vertices[o+5] = nz;
+            vertices[o+6] = u; vertices[o+7] = v;
+            return numVertices++;
+        }
+
+        void triangle(int a, int b, int c) {
+            if (numIndices + 3 > indices.length) indices = Arrays.copyOf(indices, 2 * indices.length + 3);
+            indices[numIndices++] = a;
+            indices[numIndices++] = b;
+            indices[numIndices++] = c;
+        }
+
+        float get(int vertex, int k) { return vertices[vertex * Model.floatsPerVertex + k]; }
+
+        Mesh build() {
+            return new Mesh(Arrays.copyOf(vertices, numVertices * Model.floatsPerVertex), Arrays.copyOf(indices, numIndices));
+        }
+    }
+
+    // An open cylinder of height 1.02 with a lid, res is the fraction of the circle per segment,
+    // rounded to a whole number of segments so the last one meets the first.
+    static Mesh column(float r, float res, float repeats) {
+        final String key = "column " + r + " " + res + " " + repeats;
+        Mesh mesh = cached(key);
+        if (mesh != null) return mesh;
+
+        final float top = 1.02f;
+        final float pi = (float)Math.PI;
+        final int l = Math.max(3, Math.round(1.0f / res));
+        final float step = 1.0f / l;
+        Builder b = new Builder(3 * l + 3, 9 * l);
+
+        // side, the seam gets two columns of vertices for the texture to wrap
+        final int side = b.numVertices;
+        for (int i = 0; i <= l; ++i) {
+            float u = i * step;
+            float phi = u*2.0f*pi;
+            float x = r * (float)Math.cos(phi);
+            float y = r * (float)Math.sin(phi);
+            b.vertex(x, y, 0.0f, x, y, 0, repeats*u, 0.0f);
+            b.vertex(x, y, top, x, y, 0, repeats*u, repeats*top);
+        }
+        for (int i = 0; i < l; ++i) {
+            final int bottom = side + 2 * i, next = bottom + 2;
+            b.triangle(bottom, next, bottom + 1);
+            b.triangle(bottom + 1, next, next + 1);
+        }
+
+        // lid, a fan around its center
+        final int center = b.vertex(0.0f, 0.0f, top, 0.0f, 0.0f, top, 0.0f, 0.0f);
+        final int rim = b.numVertices;
+        for (int i = 0; i < l; ++i) {
+            float phi = -2.0f*i*step*pi;
+            float x = r * (float)Math.cos(phi);
+            float y = r * (float)Math.sin(phi);
+            b.vertex(x, y, top, 0.0f, 0.0f, top, repeats*x, repeats*y);
+        }
+        for (int i = 0; i < l; ++i)
+            b.triangle(rim + i, center, rim + (i + 1) % l);
+
+        return cache(key, b.build());
+    }
+
+    // The unit sphere: an octahedron subdivided res times, each edge split once and its middle shared.
+    static Mesh ball(int res) {
+        final String key = "ball " + res;
+        Mesh mesh = cached(key);
+        if (mesh != null) return mesh;
+
+        final int triangles = 8 << (2 * res);
+        Builder b = new Builder(triangles / 2 + 16, 3 * triangles);
+        // the equator, quarter by quarter; the last vertex closes the circle with the other end of the texture
+        final int [] equator = new int[5];
+        for (int j = 0; j < 5; ++j) {
+            boolean even = j % 2 == 0, big = j % 4 > 1;
+            float x = even ? 0.0f : (big ? 1.0f : -1.0f), y = even ? (big ? 1.0f : -1.0f) : 0.0f;
+            equator[j] = b.vertex(x, y, 0.0f, x, y, 0.0f, 0.25f*j, 0.5f);
+        }
+        for (int i = 0; i < 4; ++i) {
+            int north = b.vertex(0.0f, 0.0f, 1.0f, 0.0f, 0.0f, 1.0f, 0.125f+0.25f*i, 0.0f);
+            int south = b.vertex(0.0f, 0.0f, -1.0f, 0.0f, 0.0f, -1.0f, 0.125f+0.25f*i, 1.0f);
+            b.triangle(north, equator[i+1], equator[i]);
+            b.triangle(south, equator[i], equator[i+1]);
+        }
+
+        for (int i = 0; i < res; ++i) {
+            final int [] coarse = Arrays.copyOf(b.indices, b.numIndices);
+            final Map<Long, Integer> middles = new HashMap<>();
+            b.numIndices = 0;
+            for (int k = 0; k < coarse.length; k += 3) {
+                int v0 = coarse[k], v1 = coarse[k+1], v2 = coarse[k+2];
+                int ab = middle(b, middles, v0, v1), ac = middle(b, middles, v0, v2), bc = middle(b, middles, v1, v2);
+                b.triangle(v0, ab, ac);
+                b.triangle(ab, v1, bc);
+                b.triangle(ac, bc, v2);
+                b.triangle(ac, ab, bc);
+            }
+        }
+
+        return cache(key, b.build());
+    }
+
+    // the middle of an edge pushed out onto the sphere, made once for both triangles of the edge
+    private static int middle(Builder b, Map<Long, Integer> middles, int p, int q) {
+        final long key = EndlessMaze.key(Math.min(p, q), Math.max(p, q));
+        Integer index = middles.get(key);
+        if (index != null) return index;
+
+        float x = 0.5f * (b.get(p, 0) + b.get(q, 0)), y = 0.5f * (b.get(p, 1) + b.get(q, 1)), z = 0.5f * (b.get(p, 2) + b.get(q, 2));
+        float nx = 0.5f * (b.get(p, 3) + b.get(q, 3)), ny = 0.5f * (b.get(p, 4) + b.get(q, 4)), nz = 0.5f * (b.get(p, 5) + b.get(q, 5));
+        float u = 0.5f * (b.get(p, 6) + b.get(q, 6)), v = 0.5f * (b.get(p, 7) + b.get(q, 7));
+        final float s = 1.0f / (float)Math.sqrt(x*x + y*y + z*z), t = 1.0f / (float)Math.sqrt(nx*nx + ny*ny + nz*nz);
+        // the poles have no longitude, the middle takes the one of the other end
+        final float pv = b.get(p, 7), qv = b.get(q, 7);
+        if (qv == 0.0f || qv == 1.0f) u = b.get(p, 6);
+        else if (pv == 0.0f || pv == 1.0f) u = b.get(q, 6);
+
+        index = b.vertex(s*x, s*y, s*z, t*nx, t*ny, t*nz, u, v);
+        middles.put(key, index);
+        return index;
+    }
+}
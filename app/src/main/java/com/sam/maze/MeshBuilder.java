@@ -0,0 +1,208 @@
+package com.sam.maze;
+
+// Bakes the walls, towers and path marks of a maze into packed vertex arrays (see Model.pack()),
+// already moved to their place, so a whole region is drawn with one call and an identity model
+// matrix. Pure Java, so it runs on the loader thread and in unit tests.
+public class MeshBuilder {
+    public static final int REGION_SIZE = 16; // lattice points per region side
+
+    private static final int TOP = 0, LEFT = 1, FLAT = 2;
+    private static final int F = Model.floatsPerVertex;
+
+    private final float [] wall, tower;
+    private final float pathDepth;
+
+    // wall and tower as packed by Model.pack(), path marks are walls lying pathDepth below the floor
+    public MeshBuilder(float [] wall, float [] tower, float pathDepth) {
+        this.wall = wall;
+        this.tower = tower;
+        this.pathDepth = pathDepth;
+    }
+
+    public int wallVertices() { return wall.length / F; }
+    public int towerVertices() { return tower.length / F; }
+
+    static boolean hasTower(WallLayout layout, int x, int y) {
+        return (layout.top(x-1,y) || layout.top(x,y)) && (layout.left(x,y) || layout.left(x,y-1));
+    }
+
+    // walls on the lattice points x0 <= x < x1, y0 <= y < y1
+    public float [] bakeWalls(WallLayout layout, int x0, int y0, int x1, int y1) {
+        float [] data = new float[countWalls(layout, x0, y0, x1, y1) * wall.length];
+        int at = 0;
+        for (int y = y0; y < y1; ++y) {
+            for (int x = x0; x < x1; ++x) {
+                if (layout.top(x, y)) at = put(data, at, wall, TOP, x, y);
+                if (layout.left(x, y)) at = put(data, at, wall, LEFT, x, y);
+            }
+        }
+        return data;
+    }
+
+    public float [] bakeTowers(WallLayout layout, int x0, int y0, int x1, int y1) {
+        float [] data = new float[countTowers(layout, x0, y0, x1, y1) * tower.length];
+        int at = 0;
+        for (int y = y0; y < y1; ++y)
+            for (int x = x0; x < x1; ++x)
+                if (hasTower(layout, x, y)) at = put(data, at, tower, TOP, x, y);
+        return data;
+    }
+
+    // Instead of baking: one model and normal matrix per wall, see Model.setInstances()
+    public static float [] instanceWalls(WallLayout layout, int x0, int y0, int x1, int y1) {
+        float [] data = new float[countWalls(layout, x0, y0, x1, y1) * Model.floatsPerInstance];
+        putWalls(layout, data, 0, x0, y0, x1, y1);
+        return data;
+    }
+
+    public static float [] instanceTowers(WallLayout layout, int x0, int y0, int x1, int y1) {
+        float [] data = new float[countTowers(layout, x0, y0, x1, y1) * Model.floatsPerInstance];
+        putTowers(layout, data, 0, x0, y0, x1, y1);
+        return data;
+    }
+
+    // the walls of the visible tiles only
+    public static float [] instanceWalls(WallLayout layout, VisibleSet visible) {
+        final int T = visible.tileSize();
+        int count = 0;
+        for (int i = 0; i < visible.size(); ++i) {
+            final int x = visible.tileX(i) * T, y = visible.tileY(i) * T;
+            count += countWalls(layout, x, y, x + T, y + T);
+        }
+        float [] data = new float[count * Model.floatsPerInstance];
+        for (int i = 0, at = 0; i < visible.size(); ++i) {
+            final int x = visible.tileX(i) * T, y = visible.tileY(i) * T;
+            at = putWalls(layout, data, at, x, y, x + T, y + T);
+        }
+        return data;
+    }
+
+    public static float [] instanceTowers(WallLayout layout, VisibleSet visible) {
+        final int T = visible.tileSize();
+        int count = 0;
+        for (int i = 0; i < visible.size(); ++i) {
+            final int x = visible.tileX(i) * T, y = visible.tileY(i) * T;
+            count += countTowers(layout, x, y, x + T, y + T);
+        }
+        float [] data = new float[count * Model.floatsPerInstance];
+        for (int i = 0, at = 0; i < visible.size(); ++i) {
+            final int x = visible.tileX(i) * T, y = visible.tileY(i) * T;
+            at = putTowers(layout, data, at, x, y, x + T, y + T);
+        }
+        return data;
+    }
+
+    // the walls left over by portal culling
+    public static float [] instanceWalls(PortalCuller culler) {
+        return instanceWalls(culler, new float[0]);
+    }
+
+    public static float [] instanceTowers(PortalCuller culler) {
+        return instanceTowers(culler, new float[0]);
+    }
+
+    // Written into data if it is big enough, the array used is returned. Entries after the last wall are left alone.
+    public static float [] instanceWalls(PortalCuller culler, float [] data) {
+        if (data.length < culler.wallCount() * Model.floatsPerInstance)
+            data = new float[2 * culler.wallCount() * Model.floatsPerInstance];
+        for (int i = 0, at = 0; i < culler.wallCount(); ++i)
+            at = putInstance(data, at, culler.wallLeft(i) ? LEFT : TOP, culler.wallX(i), culler.wallY(i));
+        return data;
+    }
+
+    public static float [] instanceTowers(PortalCuller culler, float [] data) {
+        if (data.length < culler.towerCount() * Model.floatsPerInstance)
+            data = new float[2 * culler.towerCount() * Model.floatsPerInstance];
+        for (int i = 0, at = 0; i < culler.towerCount(); ++i)
+            at = putInstance(data, at, TOP, culler.towerX(i), culler.towerY(i));
+        return data;
+    }
+
+    private static int countWalls(WallLayout layout, int x0, int y0, int x1, int y1) {
+        int count = 0;
+        for (int y = y0; y < y1; ++y)
+            for (int x = x0; x < x1; ++x)
+                count += (layout.top(x, y) ? 1 : 0) + (layout.left(x, y) ? 1 : 0);
+        return count;
+    }
+
+    private static int countTowers(WallLayout layout, int x0, int y0, int x1, int y1) {
+        int count = 0;
+        for (int y = y0; y < y1; ++y)
+            for (int x = x0; x < x1; ++x)
+                if (hasTower(layout, x, y)) ++count;
+        return count;
+    }
+
+    private static int putWalls(WallLayout layout, float [] data, int at, int x0, int y0, int x1, int y1) {
+        for (int y = y0; y < y1; ++y) {
+            for (int x = x0; x < x1; ++x) {
+                if (layout.top(x, y)) at = putInstance(data, at, TOP, x, y);
+                if (layout.left(x, y)) at = putInstance(data, at, LEFT, x, y);
+            }
+        }
+        return at;
+    }
+
+    private static int putTowers(WallLayout layout, float [] data, int at, int x0, int y0, int x1, int y1) {
+        for (int y = y0; y < y1; ++y)
+            for (int x = x0; x < x1; ++x)
+                if (hasTower(layout, x, y)) at = putInstance(data, at, TOP, x, y);
+        return at;
+    }
+
+    // a flat wall under every marked cell
+    public float [] bakePath(Maze maze) {
+        int count = 0;
+        for (int i = 0; i < maze.width * maze.height; ++i)
+            if (maze.marked(i)) ++count;
+
+        float [] data = new float[count * wall.length];
+        int at = 0;
+        for (int i = 0; i < maze.width * maze.height; ++i)
+            if (maze.marked(i)) at = put(data, at, wall, FLAT, i % maze.width, i / maze.width);
+        return data;
+    }
+
+    // model and normal matrix of a wall at the origin, turned around z for LEFT; putInstance() moves it
+    private static final float [] TOP_INSTANCE = instance(1.0f, 0.0f), LEFT_INSTANCE = instance(0.0f, 1.0f);
+    private static final int TRANSLATION = 12;
+
+    private static float [] instance(float c, float s) {
+        return new float[] {
+                c, s, 0.0f, 0.0f,  -s, c, 0.0f, 0.0f,  0.0f, 0.0f, 1.0f, 0.0f,  0.0f, 0.0f, 0.0f, 1.0f, // model
+                c, s, 0.0f,  -s, c, 0.0f,  0.0f, 0.0f, 1.0f // normal
+        };
+    }
+
+    private static int putInstance(float [] data, int at, int orientation, float x, float y) {
+        final float [] m = orientation == LEFT ? LEFT_INSTANCE : TOP_INSTANCE;
+        System.arraycopy(m, 0, data, at, m.length);
+        data[at + TRANSLATION] = x;
+        data[at + TRANSLATION + 1] = y;
+        return at + m.length;
+    }
+
+    private int put(float [] data, int at, float [] template, int orientation, float x, float y) {
+        for (int i = 0; i < template.length; i += F, at += F) {
+            final float px = template[i], py = template[i+1], pz = template[i+2];
+            final float nx = template[i+3], ny = template[i+4], nz = template[i+5];
+            switch (orientation) {
+                case LEFT : // turned by 90 degrees around z
+                    data[at] = x - py; data[at+1] = y + px; data[at+2] = pz;
+                    data[at+3] = -ny; data[at+4] = nx; data[at+5] = nz;
+                    break;
+                case FLAT : // turned by -90 degrees around x
+                    data[at] = x + px; data[at+1] = y + pz; data[at+2] = pathDepth - py;
+                    data[at+3] = nx; data[at+4] = nz; data[at+5] = -ny;
+                    break;
+                default :
+                    data[at] = x + px; data[at+1] = y + py; data[at+2] = pz;
+                    data[at+3] = nx; data[at+4] = ny; data[at+5] = nz;
+            }
+            data[at+6] = template[i+6];
+            data[at+7] = template[i+7];
+        }
+        return at;
+    }
+}
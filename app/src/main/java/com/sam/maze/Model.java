@@ -1,14 +1,14 @@
 package com.sam.maze;
 
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.opengl.GLES32;
-import android.opengl.GLUtils;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
 
 public class Model {
     public static class Vertex {
@@ -25,10 +25,22 @@ public class Model {
     int vao, vbo;
     float shininess;
     int numVertices;
-    final int bytesPerFloat = 4;
-    final int floatsPerVertex = 3 + 3 + 2;
-    final int vertexStride = floatsPerVertex * bytesPerFloat; // pos,normal,texcoord * 4bytes
-    private int diffuseTex, specularTex;
+    static final int bytesPerFloat = 4;
+    static final int floatsPerVertex = 3 + 3 + 2;
+    static final int vertexStride = floatsPerVertex * bytesPerFloat; // pos,normal,texcoord * 4bytes
+    int diffuseTex, specularTex;
+    private int diffuseUnit, specularUnit; // see TextureManager.unit()
+    private ResourceRegistry.Handle<Integer> diffuseHandle, specularHandle; // drawable textures this model holds
+    static final int floatsPerInstance = 16 + 9; // model mat4, normal mat3
+    static final int instanceStride = floatsPerInstance * bytesPerFloat;
+    private FloatBuffer instances;
+    private int instanceVbo, numInstances;
+    private boolean instanced;
+    private int ebo, numIndices, indexType; // indexed models only, see Model(Mesh)
+    private Model [] lods = new Model[0]; // coarser stand-ins, nearest first, see addLod()
+    private float [] lodFrom = new float[0]; // the distance each of them takes over
+    private float [][] lodData; // scratch for setInstances() by distance
+    private int [] lodCounts;
 
     private void setupVertexArray() {
         final int POSITION = 0, NORMAL = 1, TEXCOORD = 2;
@@ -37,7 +49,7 @@ public class Model {
         // IntBuffer buffer = ByteBuffer.allocateDirect(8).asIntBuffer();
         GLES32.glGenVertexArrays(1, objId, 0);
         vao = objId[0];
-        GLES32.glBindVertexArray(vao);
+        RenderState.get().bindVertexArray(vao);
         GLES32.glGenBuffers(1, objId, 0);
         vbo = objId[0];
         GLES32.glBindBuffer(GLES32.GL_ARRAY_BUFFER, vbo);
@@ -51,8 +63,28 @@ public class Model {
         GLES32.glVertexAttribPointer(TEXCOORD, 2, GLES32.GL_FLOAT, false, vertexStride, 6*bytesPerFloat);
         GLES32.glEnableVertexAttribArray(TEXCOORD);
 
-        GLES32.glBindVertexArray(0);
+    }
 
+    // The index buffer is part of the vertex array state. Short indices when they are enough.
+    private void setupIndices(int [] indices) {
+        int [] objId = new int[1];
+        GLES32.glGenBuffers(1, objId, 0);
+        ebo = objId[0];
+        numIndices = indices.length;
+        RenderState.get().bindVertexArray(vao);
+        GLES32.glBindBuffer(GLES32.GL_ELEMENT_ARRAY_BUFFER, ebo);
+        if (numVertices <= 0x10000) {
+            ShortBuffer data = ByteBuffer.allocateDirect(indices.length * 2).order(ByteOrder.nativeOrder()).asShortBuffer();
+            for (int index : indices) data.put((short) index);
+            data.position(0);
+            GLES32.glBufferData(GLES32.GL_ELEMENT_ARRAY_BUFFER, indices.length * 2, data, GLES32.GL_STATIC_DRAW);
+            indexType = GLES32.GL_UNSIGNED_SHORT;
+        } else {
+            IntBuffer data = ByteBuffer.allocateDirect(indices.length * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+            data.put(indices).position(0);
+            GLES32.glBufferData(GLES32.GL_ELEMENT_ARRAY_BUFFER, indices.length * 4, data, GLES32.GL_STATIC_DRAW);
+            indexType = GLES32.GL_UNSIGNED_INT;
+        }
     }
 
     private void setupBuffer(float [] array) {
@@ -60,41 +92,109 @@ public class Model {
         buffer.put(array).position(0);
     }
 
-    int loadTexture(final Context context, final int resourceId) {
-        final int [] tex = new int[1];
-        GLES32.glGenTextures(1, tex, 0);
-        if (tex[0] == 0) {
-            throw new RuntimeException("Error loading texture.");
+    // Per-instance model and normal matrices, column-major (see MeshBuilder.instanceWalls()).
+    // From now on draw() renders one copy of the model per instance.
+    public void setInstances(float [] data) {
+        setInstances(data, data.length / floatsPerInstance);
+    }
+
+    // the first count instances of data, the array can be reused right away
+    public void setInstances(float [] data, int count) {
+        final int MODEL = 3, NORMAL = 7; // a matrix takes one location per column
+        final int floats = count * floatsPerInstance;
+
+        numInstances = count;
+        if (instances == null || instances.capacity() < floats)
+            instances = ByteBuffer.allocateDirect(2 * floats * bytesPerFloat).order(ByteOrder.nativeOrder()).asFloatBuffer(); // room to grow
+        instances.clear();
+        instances.put(data, 0, floats).position(0);
+
+        RenderState.get().bindVertexArray(vao);
+        if (instanceVbo == 0) {
+            int [] objId = new int[1];
+            GLES32.glGenBuffers(1, objId, 0);
+            instanceVbo = objId[0];
+            GLES32.glBindBuffer(GLES32.GL_ARRAY_BUFFER, instanceVbo);
+            for (int i = 0; i < 4; ++i) {
+                GLES32.glVertexAttribPointer(MODEL + i, 4, GLES32.GL_FLOAT, false, instanceStride, 4 * i * bytesPerFloat);
+                GLES32.glVertexAttribDivisor(MODEL + i, 1);
+                GLES32.glEnableVertexAttribArray(MODEL + i);
+            }
+            for (int i = 0; i < 3; ++i) {
+                GLES32.glVertexAttribPointer(NORMAL + i, 3, GLES32.GL_FLOAT, false, instanceStride, (16 + 3 * i) * bytesPerFloat);
+                GLES32.glVertexAttribDivisor(NORMAL + i, 1);
+                GLES32.glEnableVertexAttribArray(NORMAL + i);
+            }
+        } else {
+            GLES32.glBindBuffer(GLES32.GL_ARRAY_BUFFER, instanceVbo);
         }
-        final BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inScaled = false;
-        final Bitmap bitmap = BitmapFactory.decodeResource(context.getResources(), resourceId, options);
+        GLES32.glBufferData(GLES32.GL_ARRAY_BUFFER, floats * bytesPerFloat, instances, GLES32.GL_DYNAMIC_DRAW);
+        instanced = true;
+    }
 
-        GLES32.glBindTexture(GLES32.GL_TEXTURE_2D, tex[0]);
-        GLES32.glTexParameteri(GLES32.GL_TEXTURE_2D, GLES32.GL_TEXTURE_WRAP_S, GLES32.GL_REPEAT);
-        GLES32.glTexParameteri(GLES32.GL_TEXTURE_2D, GLES32.GL_TEXTURE_WRAP_T, GLES32.GL_REPEAT);
-        GLES32.glTexParameteri(GLES32.GL_TEXTURE_2D, GLES32.GL_TEXTURE_MIN_FILTER, GLES32.GL_LINEAR_MIPMAP_LINEAR);
-        GLES32.glTexParameteri(GLES32.GL_TEXTURE_2D, GLES32.GL_TEXTURE_MAG_FILTER, GLES32.GL_LINEAR);
-        GLUtils.texImage2D(GLES32.GL_TEXTURE_2D, 0, bitmap, 0);
-        GLES32.glGenerateMipmap(GLES32.GL_TEXTURE_2D);
+    // Spreads the first count instances over the levels by the distance of their translation from (x, y),
+    // each level draws its share. Distances are multiplied by scale, more than 1 for a view that shows
+    // things smaller. Without levels this model takes them all.
+    public void setInstances(float [] data, int count, float x, float y, float scale) {
+        if (lods.length == 0) {
+            setInstances(data, count);
+            return;
+        }
+        if (lodData == null) {
+            lodData = new float[lods.length + 1][0];
+            lodCounts = new int[lods.length + 1];
+        }
+        Arrays.fill(lodCounts, 0);
+        for (int i = 0; i < count; ++i) {
+            final int at = i * floatsPerInstance;
+            final float dx = data[at + 12] - x, dy = data[at + 13] - y;
+            final int level = level(lodFrom, scale * (float)Math.sqrt(dx * dx + dy * dy));
+            final int to = lodCounts[level]++ * floatsPerInstance;
+            if (lodData[level].length < to + floatsPerInstance)
+                lodData[level] = Arrays.copyOf(lodData[level], 2 * (to + floatsPerInstance)); // room to grow
+            System.arraycopy(data, at, lodData[level], to, floatsPerInstance);
+        }
+        for (int level = 0; level <= lods.length; ++level)
+            lod(level).setInstances(lodData[level], lodCounts[level]);
+    }
 
-        bitmap.recycle();
+    int instanceCount() { return numInstances; }
 
-        return tex[0];
+    // Registers a coarser stand-in for the distances from `from` on, levels come from near to far.
+    // It takes over this model's textures, now and whenever they change.
+    public void addLod(Model level, float from) {
+        if (lods.length > 0 ? from <= lodFrom[lods.length - 1] : from <= 0.0f)
+            throw new IllegalArgumentException("Model: LOD levels go from near to far.");
+        lods = Arrays.copyOf(lods, lods.length + 1);
+        lodFrom = Arrays.copyOf(lodFrom, lodFrom.length + 1);
+        lods[lods.length - 1] = level;
+        lodFrom[lodFrom.length - 1] = from;
+        lodData = null;
+        level.setTextures(diffuseTex, specularTex, shininess);
     }
 
-    // Same model, other texture
-    public Model(Context context, Model other, int diffuseMapResId, int specularMapResId, float shininess) {
-        this.numVertices = other.numVertices;
-        this.vao = other.vao;
-        this.diffuseTex = loadTexture(context, diffuseMapResId);
-        this.specularTex = loadTexture(context, specularMapResId);
-        this.shininess = shininess;
+    public int lodCount() { return lods.length + 1; }
+
+    // 0 is this model
+    public Model lod(int level) {
+        return level == 0 ? this : lods[level - 1];
     }
 
-    public Model(Context context, Vertex[] vertices) {
-        numVertices = vertices.length;
-        float [] bufData = new float[numVertices * floatsPerVertex];
+    // the level to draw at that distance, in the unit the levels were registered with
+    public Model lodAt(float distance) {
+        return lod(level(lodFrom, distance));
+    }
+
+    // the last level whose distance is reached, 0 when nearer than all
+    static int level(float [] from, float distance) {
+        int level = 0;
+        while (level < from.length && distance >= from[level]) ++level;
+        return level;
+    }
+
+    // Interleaves the vertices the way the vertex array expects them.
+    static float [] pack(Vertex[] vertices) {
+        float [] bufData = new float[vertices.length * floatsPerVertex];
         for (int i=0; i < vertices.length; ++i) {
             bufData[floatsPerVertex*i]   = vertices[i].position.x;
             bufData[floatsPerVertex*i+1] = vertices[i].position.y;
@@ -105,16 +205,14 @@ public class Model {
             bufData[floatsPerVertex*i+6] = vertices[i].texCoord.x;
             bufData[floatsPerVertex*i+7] = vertices[i].texCoord.y;
         }
-        setupBuffer(bufData);
-        setupVertexArray();
+        return bufData;
     }
 
-    public Model(Context context, float [][] vPos, float [][] vNorm, float [][] vTex) {
+    static float [] pack(float [][] vPos, float [][] vNorm, float [][] vTex) {
         if (vPos.length != vNorm.length || vPos.length != vTex.length) {
             throw new IllegalArgumentException("Model: Wrong matrix dimensions.");
         }
-        numVertices = vPos.length;
-        float [] bufData = new float[numVertices * floatsPerVertex];
+        float [] bufData = new float[vPos.length * floatsPerVertex];
 
         for (int i=0; i < vPos.length; ++i) {
             if (vPos[i].length != 3 || vNorm[i].length != 3 || vTex[i].length != 2)
@@ -129,42 +227,120 @@ public class Model {
             bufData[floatsPerVertex*i+6] = vTex[i][0];
             bufData[floatsPerVertex*i+7] = vTex[i][1];
         }
-        setupBuffer(bufData);
+        return bufData;
+    }
+
+    // Same model, other texture
+    public Model(Context context, Model other, int diffuseMapResId, int specularMapResId, float shininess) {
+        this(other);
+        setTextures(context, diffuseMapResId, specularMapResId, shininess);
+    }
+
+    // Same geometry and levels, textures follow with setTextures()
+    Model(Model other) {
+        this.numVertices = other.numVertices;
+        this.vao = other.vao;
+        this.numIndices = other.numIndices;
+        this.indexType = other.indexType;
+        for (int level = 1; level < other.lodCount(); ++level)
+            addLod(new Model(other.lod(level)), other.lodFrom[level - 1]);
+    }
+
+    // Uploads packed vertices, see pack().
+    public Model(float [] data) {
+        numVertices = data.length / floatsPerVertex;
+        setupBuffer(data);
         setupVertexArray();
     }
 
+    // Uploads shared vertices with their index buffer, drawn with glDrawElements().
+    public Model(Mesh mesh) {
+        numVertices = mesh.vertexCount();
+        setupBuffer(mesh.vertices);
+        setupVertexArray();
+        setupIndices(mesh.indices);
+    }
+
+    public Model(Context context, Vertex[] vertices) {
+        this(pack(vertices));
+    }
+
+    public Model(Context context, float [][] vPos, float [][] vNorm, float [][] vTex) {
+        this(pack(vPos, vNorm, vTex));
+    }
+
     public Model(Context context, Vertex[] vertices, int diffuseMapResId, int specularMapResId, float shininess) {
         this(context, vertices);
-
-        diffuseTex = loadTexture(context, diffuseMapResId);
-        specularTex = loadTexture(context, specularMapResId);
-        this.shininess = shininess;
+        setTextures(context, diffuseMapResId, specularMapResId, shininess);
     }
 
     public Model(Context context, float [][] vPos, float [][] vNorm, float [][] vTex, int diffuseMapResId, int specularMapResId, float shininess) {
         this(context, vPos, vNorm, vTex);
-        diffuseTex = loadTexture(context, diffuseMapResId);
-        specularTex = loadTexture(context, specularMapResId);
-        this.shininess = shininess;
+        setTextures(context, diffuseMapResId, specularMapResId, shininess);
     }
 
     public void setTextures(int diff, int spec, float shine) {
         diffuseTex = diff;
         specularTex = spec;
+        diffuseUnit = TextureManager.get().unit(diff);
+        specularUnit = TextureManager.get().unit(spec);
         shininess = shine;
+        for (Model level : lods) level.setTextures(diff, spec, shine);
+    }
+
+    // textures from drawables, shared through the registry and given back by delete()
+    private void setTextures(Context context, int diffuseMapResId, int specularMapResId, float shine) {
+        final TextureManager textures = TextureManager.get();
+        diffuseHandle = textures.acquire(context, diffuseMapResId);
+        specularHandle = textures.acquire(context, specularMapResId);
+        setTextures(diffuseHandle.get(), specularHandle.get(), shine);
+    }
+
+    // Frees the vertex array and buffer and those of the levels, textures stay with their owner
+    // or go back to the registry. GL thread only.
+    public void delete() {
+        for (Model level : lods) level.delete();
+        if (diffuseHandle != null) diffuseHandle.close();
+        if (specularHandle != null) specularHandle.close();
+        diffuseHandle = specularHandle = null;
+        RenderState.get().bindVertexArray(0); // deleting unbinds it, and the name may be handed out again
+        GLES32.glDeleteVertexArrays(1, new int[] { vao }, 0);
+        GLES32.glDeleteBuffers(1, new int[] { vbo }, 0);
+        if (instanceVbo != 0) GLES32.glDeleteBuffers(1, new int[] { instanceVbo }, 0);
+        if (ebo != 0) GLES32.glDeleteBuffers(1, new int[] { ebo }, 0);
+        vao = vbo = instanceVbo = ebo = 0;
+        numVertices = numInstances = numIndices = 0;
+        buffer = instances = null;
+    }
+
+    // textures and vertex array, without touching the shader
+    void bind(RenderState state) {
+        state.bindTexture(diffuseUnit, diffuseTex);
+        state.bindTexture(specularUnit, specularTex);
+        state.bindVertexArray(vao);
     }
 
     public void draw(Shader shader) {
-        GLES32.glActiveTexture(GLES32.GL_TEXTURE0+diffuseTex);
-        GLES32.glBindTexture(GLES32.GL_TEXTURE_2D, diffuseTex);
-        shader.uniform("material.diffuse", diffuseTex);
-        GLES32.glActiveTexture(GLES32.GL_TEXTURE0+specularTex);
-        GLES32.glBindTexture(GLES32.GL_TEXTURE_2D, specularTex);
-        shader.uniform("material.specular", specularTex);
-        shader.uniform("material.shininess", shininess);
-
-        GLES32.glBindVertexArray(vao);
-        GLES32.glDrawArrays(GLES32.GL_TRIANGLES, 0, numVertices);
-        GLES32.glBindVertexArray(0);
+        draw(shader, RenderState.get());
+    }
+
+    public void draw(Shader shader, RenderState state) {
+        bind(state);
+        if (state.material(shader, diffuseTex, specularTex, shininess, instanced)) {
+            shader.uniform("material.diffuse", diffuseUnit);
+            shader.uniform("material.specular", specularUnit);
+            shader.uniform("material.shininess", shininess);
+            shader.uniform("instanced", instanced);
+        }
+
+        shader.use();
+        if (numIndices > 0 && instanced)
+            GLES32.glDrawElementsInstanced(GLES32.GL_TRIANGLES, numIndices, indexType, 0, numInstances);
+        else if (numIndices > 0)
+            GLES32.glDrawElements(GLES32.GL_TRIANGLES, numIndices, indexType, 0);
+        else if (instanced)
+            GLES32.glDrawArraysInstanced(GLES32.GL_TRIANGLES, 0, numVertices, numInstances);
+        else
+            GLES32.glDrawArrays(GLES32.GL_TRIANGLES, 0, numVertices);
     }
 }
@@ -1,5 +1,6 @@
 package com.sam.maze;
 
+import android.app.Activity;
 import android.content.Context;
 import android.content.res.Configuration;
 import android.hardware.Sensor;
@@ -16,6 +17,7 @@ public class MyGLSurfaceView extends GLSurfaceView implements SensorEventListene
     // For gyroscopic sensor :
 
     private static final float SENSOR_RESOLUTION = 0.0000005f;
+    private static final int MAX_FPS = 60;
     private float mTimestamp;
     private final SensorManager mSensorManager;
     private final Sensor mGyroscope;
@@ -50,11 +52,15 @@ public class MyGLSurfaceView extends GLSurfaceView implements SensorEventListene
 
     @Override
     public void onPause() {
-        super.onPause();
+        // queued events still run before the GL thread pauses, a finishing game has nothing left to save
+        if (((Activity) getContext()).isFinishing()) game.quit();
+        super.onPause(); // returns once the GL thread is paused, so the game can be saved safely
+        game.save();
         mSensorManager.unregisterListener(this);
     }
 
     private final Game game;
+    private final FrameScheduler scheduler;
     private final ScaleGestureDetector scaleGestureDetector;
     private boolean isScaling;
     private boolean isGyroCtrl;
@@ -83,8 +89,10 @@ public class MyGLSurfaceView extends GLSurfaceView implements SensorEventListene
         // OpenGL
         setPreserveEGLContextOnPause(true);
         setEGLContextClientVersion(3);
-        game = new Game(context, getWidth(), getHeight());
+        scheduler = new FrameScheduler(this, MAX_FPS);
+        game = new Game(context, getWidth(), getHeight(), scheduler);
         setRenderer(game);
+        setRenderMode(RENDERMODE_WHEN_DIRTY); // frames come from the scheduler
 
         // sensor:
 
@@ -113,7 +121,6 @@ public class MyGLSurfaceView extends GLSurfaceView implements SensorEventListene
                 game.rotateView(x-oldX, y-oldY);
                 oldX = x;
                 oldY = y;
-                requestRender();
                 break;
             case MotionEvent.ACTION_DOWN:
                 oldX = x;
@@ -0,0 +1,206 @@
+package com.sam.maze;
+
+import java.util.Arrays;
+
+// Finds the walls that can be seen from a point inside the maze. Walls are perfect occluders, so a
+// cell is only seen through the open edges (portals) on the way to it: starting in the player's cell,
+// every portal narrows the cone of sight until it closes or the view distance is reached.
+// Only valid while the eye is below the wall tops.
+public class PortalCuller {
+    private static final float MARGIN = 0.1f; // walls are thick and towers round, widen every edge a little
+    private static final float EPS = 1e-3f;
+
+    private final WallLayout layout;
+
+    // walls as (lattice key << 1 | left), towers as lattice keys, see EndlessMaze.key()
+    private long [] walls = new long[256], previous = new long[256], towers = new long[256];
+    private int wallCount, previousCount, towerCount;
+
+    // pending cells: x, y and the edge they were entered by; the cone as right and left ray
+    private int [] cells = new int[3 * 64];
+    private float [] cones = new float[4 * 64];
+    private final float [] cone = new float[4];
+
+    // the widest cone each cell in reach was queued with, open areas would be reached along countless paths
+    private float [] seen = new float[0];
+    private int [] stamps = new int[0];
+    private int stamp, window;
+
+    public PortalCuller(WallLayout layout) {
+        this.layout = layout;
+    }
+
+    public int wallCount() { return wallCount; }
+    public int wallX(int i) { return (int)(walls[i] >> 33); }
+    public int wallY(int i) { return (int)(walls[i] >> 1); }
+    public boolean wallLeft(int i) { return (walls[i] & 1) != 0; }
+
+    public int towerCount() { return towerCount; }
+    public int towerX(int i) { return (int)(towers[i] >> 32); }
+    public int towerY(int i) { return (int)towers[i]; }
+
+    // Collects the walls visible from (x, y) within the given Manhattan cell distance. A frustum
+    // (may be null) drops walls in tiles outside the view. Returns true if the walls differ from the last call.
+    public boolean update(float x, float y, int limit, VisibleSet frustum) {
+        long [] swap = previous;
+        previous = walls;
+        walls = swap;
+        previousCount = wallCount;
+        wallCount = 0;
+
+        // keep the eye off the grid lines, so no edge is seen end-on
+        final int cx = (int)Math.floor(x), cy = (int)Math.floor(y);
+        x = Math.max(cx + EPS, Math.min(cx + 1 - EPS, x));
+        y = Math.max(cy + EPS, Math.min(cy + 1 - EPS, y));
+
+        window = 2 * limit + 1;
+        if (stamps.length < window * window) {
+            stamps = new int[window * window];
+            seen = new float[4 * window * window];
+            stamp = 0;
+        }
+        ++stamp;
+
+        // the own cell is seen all around: each edge with its own cone
+        int pending = 0;
+        for (int edge = 0; edge < 4; ++edge) {
+            if (!cone(edge, cx, cy, x, y, cone)) continue; // can't happen, the eye is inside
+            pending = visit(cx, cy, edge, cone[0], cone[1], cone[2], cone[3], pending, limit, cx, cy);
+        }
+
+        while (pending > 0) {
+            --pending;
+            final int px = cells[3*pending], py = cells[3*pending+1], from = cells[3*pending+2];
+            final float rx = cones[4*pending], ry = cones[4*pending+1], lx = cones[4*pending+2], ly = cones[4*pending+3];
+            for (int edge = 0; edge < 4; ++edge) {
+                if (edge == from) continue;
+                if (!cone(edge, px, py, x, y, cone)) continue;
+                // intersect with the cone we came in with
+                final float ix, iy, jx, jy;
+                if (cross(rx, ry, cone[0], cone[1]) > 0) { ix = cone[0]; iy = cone[1]; } else { ix = rx; iy = ry; }
+                if (cross(lx, ly, cone[2], cone[3]) < 0) { jx = cone[2]; jy = cone[3]; } else { jx = lx; jy = ly; }
+                if (cross(ix, iy, jx, jy) <= 0) continue;
+                if (!inside(rx, ry, lx, ly, ix, iy) || !inside(cone[0], cone[1], cone[2], cone[3], ix, iy)
+                        || !inside(rx, ry, lx, ly, jx, jy) || !inside(cone[0], cone[1], cone[2], cone[3], jx, jy))
+                    continue;
+                pending = visit(px, py, edge, ix, iy, jx, jy, pending, limit, cx, cy);
+            }
+        }
+
+        // drop what the frustum can't see, then sort, so duplicates and changes are easy to find
+        if (frustum != null) {
+            final int T = frustum.tileSize();
+            int kept = 0;
+            for (int i = 0; i < wallCount; ++i)
+                if (frustum.contains(Math.floorDiv(wallX(i), T), Math.floorDiv(wallY(i), T))) walls[kept++] = walls[i];
+            wallCount = kept;
+        }
+        Arrays.sort(walls, 0, wallCount);
+        wallCount = unique(walls, wallCount);
+        collectTowers();
+
+        if (wallCount != previousCount) return true;
+        for (int i = 0; i < wallCount; ++i)
+            if (walls[i] != previous[i]) return true;
+        return false;
+    }
+
+    // handles the edge of a cell seen through the cone: a wall is recorded, a portal queues the cell behind it
+    private int visit(int px, int py, int edge, float rx, float ry, float lx, float ly, int pending, int limit, int cx, int cy) {
+        final boolean left = edge < 2;
+        final int wx = edge == 1 ? px + 1 : px, wy = edge == 3 ? py + 1 : py;
+        if (left ? layout.left(wx, wy) : layout.top(wx, wy)) {
+            if (wallCount == walls.length) walls = Arrays.copyOf(walls, 2 * wallCount);
+            walls[wallCount++] = EndlessMaze.key(wx, wy) << 1 | (left ? 1 : 0);
+            return pending;
+        }
+
+        final int nx = px + (edge == 0 ? -1 : edge == 1 ? 1 : 0), ny = py + (edge == 2 ? -1 : edge == 3 ? 1 : 0);
+        if (Math.abs(nx - cx) + Math.abs(ny - cy) > limit) return pending;
+
+        final int cell = (ny - cy + limit) * window + nx - cx + limit;
+        if (stamps[cell] == stamp) {
+            final float sx = seen[4*cell], sy = seen[4*cell+1], tx = seen[4*cell+2], ty = seen[4*cell+3];
+            if (inside(sx, sy, tx, ty, rx, ry) && inside(sx, sy, tx, ty, lx, ly)) return pending; // nothing new
+            // widen to span both cones, unless that would take half a turn or more
+            final float ux = cross(sx, sy, rx, ry) < 0 ? rx : sx, uy = cross(sx, sy, rx, ry) < 0 ? ry : sy;
+            final float vx = cross(tx, ty, lx, ly) > 0 ? lx : tx, vy = cross(tx, ty, lx, ly) > 0 ? ly : ty;
+            if (cross(ux, uy, vx, vy) > 0 && inside(ux, uy, vx, vy, sx, sy) && inside(ux, uy, vx, vy, lx, ly)) {
+                rx = ux; ry = uy; lx = vx; ly = vy;
+            }
+        }
+        stamps[cell] = stamp;
+        seen[4*cell] = rx;
+        seen[4*cell+1] = ry;
+        seen[4*cell+2] = lx;
+        seen[4*cell+3] = ly;
+
+        if (3 * pending + 3 > cells.length) {
+            cells = Arrays.copyOf(cells, 2 * cells.length);
+            cones = Arrays.copyOf(cones, 2 * cones.length);
+        }
+        cells[3*pending] = nx;
+        cells[3*pending+1] = ny;
+        cells[3*pending+2] = edge ^ 1; // left <-> right, top <-> bottom
+        cones[4*pending] = rx;
+        cones[4*pending+1] = ry;
+        cones[4*pending+2] = lx;
+        cones[4*pending+3] = ly;
+        return pending + 1;
+    }
+
+    // the cone from (x, y) onto an edge of cell (px, py): 0 left, 1 right, 2 top, 3 bottom
+    private static boolean cone(int edge, int px, int py, float x, float y, float [] out) {
+        final float ax, ay, bx, by;
+        if (edge < 2) {
+            ax = bx = edge == 0 ? px : px + 1;
+            ay = py - MARGIN;
+            by = py + 1 + MARGIN;
+        } else {
+            ay = by = edge == 2 ? py : py + 1;
+            ax = px - MARGIN;
+            bx = px + 1 + MARGIN;
+        }
+        final float c = cross(ax - x, ay - y, bx - x, by - y);
+        if (Math.abs(c) < 1e-9f) return false;
+        // right ray first: the left one is counter-clockwise from it
+        if (c > 0) {
+            out[0] = ax - x; out[1] = ay - y; out[2] = bx - x; out[3] = by - y;
+        } else {
+            out[0] = bx - x; out[1] = by - y; out[2] = ax - x; out[3] = ay - y;
+        }
+        return true;
+    }
+
+    private static float cross(float ax, float ay, float bx, float by) {
+        return ax * by - ay * bx;
+    }
+
+    // a ray inside a cone narrower than half a turn, with a little slack
+    private static boolean inside(float rx, float ry, float lx, float ly, float x, float y) {
+        final float slack = -EPS * (float)Math.sqrt(x * x + y * y);
+        return cross(rx, ry, x, y) / (float)Math.sqrt(rx * rx + ry * ry) >= slack
+                && cross(x, y, lx, ly) / (float)Math.sqrt(lx * lx + ly * ly) >= slack;
+    }
+
+    private static int unique(long [] keys, int count) {
+        int n = 0;
+        for (int i = 0; i < count; ++i)
+            if (n == 0 || keys[n-1] != keys[i]) keys[n++] = keys[i];
+        return n;
+    }
+
+    // towers at the ends of the visible walls
+    private void collectTowers() {
+        towerCount = 0;
+        if (towers.length < 2 * wallCount) towers = new long[2 * walls.length];
+        for (int i = 0; i < wallCount; ++i) {
+            final int x = wallX(i), y = wallY(i);
+            final int ex = wallLeft(i) ? x : x + 1, ey = wallLeft(i) ? y + 1 : y;
+            if (MeshBuilder.hasTower(layout, x, y)) towers[towerCount++] = EndlessMaze.key(x, y);
+            if (MeshBuilder.hasTower(layout, ex, ey)) towers[towerCount++] = EndlessMaze.key(ex, ey);
+        }
+        Arrays.sort(towers, 0, towerCount);
+        towerCount = unique(towers, towerCount);
+    }
+}
@@ -0,0 +1,154 @@
+package com.sam.maze;
+
+import android.content.Context;
+import android.opengl.GLES32;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+// Linked programs kept in the cache dir, so the shaders are compiled once per driver instead of at every start.
+// A binary is found by the hash of both sources and the driver, a driver update or an edited shader simply
+// misses. Whatever doesn't load is compiled from source by the caller. GL thread only.
+public class ProgramCache {
+    private static final String DIR = "programs";
+    private static final int MAGIC = 0x4d5a5042; // "MZPB"
+    private static ProgramCache shared;
+
+    static final class Binary {
+        final int format;
+        final ByteBuffer data; // direct, native order, as GL wants it
+
+        Binary(int format, ByteBuffer data) {
+            this.format = format;
+            this.data = data;
+        }
+    }
+
+    private final File dir;
+    private String driver; // renderer and version, known once there is a context
+    private Boolean supported;
+
+    public static synchronized ProgramCache get(Context context) {
+        if (shared == null) shared = new ProgramCache(new File(context.getCacheDir(), DIR));
+        return shared;
+    }
+
+    ProgramCache(File dir) {
+        this.dir = dir;
+    }
+
+    // hex SHA-256 of everything the binary depends on
+    static String key(String vertex, String fragment, String driver) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : new String[] { vertex, fragment, driver }) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte)0); // "ab" + "c" isn't "a" + "bc"
+            }
+            final StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException exception) {
+            throw new RuntimeException("Error: no SHA-256", exception);
+        }
+    }
+
+    private File file(String vertex, String fragment) {
+        if (driver == null)
+            driver = GLES32.glGetString(GLES32.GL_RENDERER) + "\n" + GLES32.glGetString(GLES32.GL_VERSION);
+        return new File(dir, key(vertex, fragment, driver) + ".bin");
+    }
+
+    private boolean supported() {
+        if (supported == null) {
+            final int [] formats = new int[1];
+            GLES32.glGetIntegerv(GLES32.GL_NUM_PROGRAM_BINARY_FORMATS, formats, 0);
+            supported = formats[0] > 0;
+        }
+        return supported;
+    }
+
+    // A linked program from the binary of these sources, 0 if there is none or the driver refuses it.
+    public int load(String vertex, String fragment) {
+        if (!supported()) return 0;
+        final File file = file(vertex, fragment);
+        final Binary binary = read(file);
+        if (binary == null) return 0;
+
+        final int program = GLES32.glCreateProgram();
+        GLES32.glProgramBinary(program, binary.format, binary.data, binary.data.remaining());
+        final int [] linkStatus = new int[1];
+        GLES32.glGetProgramiv(program, GLES32.GL_LINK_STATUS, linkStatus, 0);
+        if (linkStatus[0] == 0) {
+            Log.w("Maze", "Program binary rejected, compiling again");
+            GLES32.glDeleteProgram(program);
+            while (GLES32.glGetError() != GLES32.GL_NO_ERROR); // an unknown format is an error, not ours to report later
+            file.delete();
+            return 0;
+        }
+        return program;
+    }
+
+    // Keeps the binary of a program linked from these sources. It has to be linked with the retrievable hint.
+    public void store(int program, String vertex, String fragment) {
+        if (!supported()) return;
+        final int [] length = new int[1], format = new int[1];
+        GLES32.glGetProgramiv(program, GLES32.GL_PROGRAM_BINARY_LENGTH, length, 0);
+        if (length[0] <= 0) return;
+        final ByteBuffer data = ByteBuffer.allocateDirect(length[0]).order(ByteOrder.nativeOrder());
+        GLES32.glGetProgramBinary(program, length[0], length, 0, format, 0, data);
+        data.limit(length[0]);
+        try {
+            write(file(vertex, fragment), new Binary(format[0], data));
+        } catch (IOException exception) {
+            Log.w("Maze", "Couldn't keep the program binary", exception);
+        }
+    }
+
+    // null if the file is missing or isn't a complete binary
+    static Binary read(File file) {
+        if (!file.isFile()) return null;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != MAGIC) return null;
+            final int format = in.readInt(), length = in.readInt();
+            if (length <= 0 || length != file.length() - 12) return null;
+            final byte [] bytes = new byte[length];
+            in.readFully(bytes);
+            final ByteBuffer data = ByteBuffer.allocateDirect(length).order(ByteOrder.nativeOrder());
+            data.put(bytes).flip();
+            return new Binary(format, data);
+        } catch (IOException exception) {
+            return null;
+        }
+    }
+
+    // written next to the file and renamed, a crash never leaves half a binary
+    static void write(File file, Binary binary) throws IOException {
+        final File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) throw new IOException("can't create " + dir);
+        final File temp = new File(file.getPath() + ".tmp");
+        final ByteBuffer data = binary.data.duplicate();
+        final byte [] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temp))) {
+            out.writeInt(MAGIC);
+            out.writeInt(binary.format);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("can't rename " + temp);
+        }
+    }
+}
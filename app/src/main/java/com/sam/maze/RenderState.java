@@ -0,0 +1,99 @@
+package com.sam.maze;
+
+import android.opengl.GLES32;
+
+import java.util.Arrays;
+
+// Remembers which textures and vertex array are bound and skips binds that would change nothing.
+// Every texture and vertex array bind goes through here, so the cache stays right. GL thread only.
+public class RenderState {
+    interface Backend {
+        void activeTexture(int unit);
+        void bindTexture(int texture);
+        void bindVertexArray(int vao);
+    }
+
+    private static final Backend GLES = new Backend() {
+        @Override public void activeTexture(int unit) { GLES32.glActiveTexture(GLES32.GL_TEXTURE0 + unit); }
+        @Override public void bindTexture(int texture) { GLES32.glBindTexture(GLES32.GL_TEXTURE_2D, texture); }
+        @Override public void bindVertexArray(int vao) { GLES32.glBindVertexArray(vao); }
+    };
+    private static final RenderState shared = new RenderState(GLES);
+
+    private static final int UNITS = 32; // units beyond are bound every time
+    private final Backend backend;
+    private final int [] textures = new int[UNITS];
+    private int unit, vao;
+    private Shader shader; // the material last set, see material()
+    private int diffuse, specular;
+    private float shininess;
+    private boolean instanced;
+    private int issued, skipped;
+
+    // the state of the GL thread
+    public static RenderState get() { return shared; }
+
+    RenderState(Backend backend) {
+        this.backend = backend;
+        reset();
+    }
+
+    // forgets everything, e.g. after the context was recreated
+    public void reset() {
+        Arrays.fill(textures, -1);
+        unit = vao = diffuse = -1;
+        shader = null;
+    }
+
+    public void bindTexture(int unit, int texture) {
+        if (unit < UNITS && textures[unit] == texture) {
+            ++skipped;
+            return;
+        }
+        if (this.unit != unit) {
+            backend.activeTexture(unit);
+            this.unit = unit;
+        }
+        backend.bindTexture(texture);
+        if (unit < UNITS) textures[unit] = texture;
+        ++issued;
+    }
+
+    // deleting a texture unbinds it from every unit, and its name may be handed out again
+    public void forgetTexture(int texture) {
+        for (int i = 0; i < UNITS; ++i)
+            if (textures[i] == texture) textures[i] = 0;
+    }
+
+    public void bindVertexArray(int vao) {
+        if (this.vao == vao) {
+            ++skipped;
+            return;
+        }
+        backend.bindVertexArray(vao);
+        this.vao = vao;
+        ++issued;
+    }
+
+    // Returns true if the material uniforms have to be set, false if the shader has them already.
+    boolean material(Shader shader, int diffuse, int specular, float shininess, boolean instanced) {
+        if (this.shader == shader && this.diffuse == diffuse && this.specular == specular && this.shininess == shininess && this.instanced == instanced) {
+            ++skipped;
+            return false;
+        }
+        this.shader = shader;
+        this.diffuse = diffuse;
+        this.specular = specular;
+        this.shininess = shininess;
+        this.instanced = instanced;
+        ++issued;
+        return true;
+    }
+
+    public int issued() { return issued; }
+    public int skipped() { return skipped; }
+
+    public void resetCounters() {
+        issued = skipped = 0;
+    }
+}
@@ -0,0 +1,138 @@
+package com.sam.maze;
+
+import android.opengl.GLES32;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Framebuffers with a color texture and a depth/stencil renderbuffer, by name. A target keeps its
+// handles when it changes size, only the storage is reallocated, so whoever samples the texture
+// needn't know. Every byte allocated here is counted. GL thread only.
+public class RenderTargetPool {
+    // RGB is padded to 4 bytes by most drivers, depth 24 and stencil 8 take another 4
+    static final int BYTES_PER_PIXEL = 4 + 4;
+
+    static final class Target {
+        int fbo, color, depth;
+        int width, height;
+
+        long bytes() { return (long)width * height * BYTES_PER_PIXEL; }
+    }
+
+    interface Backend {
+        void create(Target target); // generates the handles and allocates width x height
+        void resize(Target target); // allocates width x height for the handles there are
+        void delete(Target target);
+    }
+
+    private static final Backend GLES = new Backend() {
+        @Override
+        public void create(Target target) {
+            int [] handles = new int[1];
+            GLES32.glGenFramebuffers(1, handles, 0);
+            target.fbo = handles[0];
+            GLES32.glGenTextures(1, handles, 0);
+            target.color = handles[0];
+            GLES32.glGenRenderbuffers(1, handles, 0);
+            target.depth = handles[0];
+
+            allocate(target);
+            GLES32.glBindFramebuffer(GLES32.GL_FRAMEBUFFER, target.fbo);
+            GLES32.glFramebufferTexture2D(GLES32.GL_FRAMEBUFFER, GLES32.GL_COLOR_ATTACHMENT0, GLES32.GL_TEXTURE_2D, target.color, 0);
+            GLES32.glFramebufferRenderbuffer(GLES32.GL_FRAMEBUFFER, GLES32.GL_DEPTH_STENCIL_ATTACHMENT, GLES32.GL_RENDERBUFFER, target.depth);
+            check();
+        }
+
+        @Override
+        public void resize(Target target) {
+            allocate(target);
+            GLES32.glBindFramebuffer(GLES32.GL_FRAMEBUFFER, target.fbo);
+            check();
+        }
+
+        private void allocate(Target target) {
+            final RenderState state = RenderState.get();
+            state.bindTexture(TextureManager.UPLOAD_UNIT, target.color);
+            GLES32.glTexImage2D(GLES32.GL_TEXTURE_2D, 0, GLES32.GL_RGB, target.width, target.height, 0, GLES32.GL_RGB, GLES32.GL_UNSIGNED_BYTE, null);
+            GLES32.glTexParameteri(GLES32.GL_TEXTURE_2D, GLES32.GL_TEXTURE_MIN_FILTER, GLES32.GL_LINEAR);
+            GLES32.glTexParameteri(GLES32.GL_TEXTURE_2D, GLES32.GL_TEXTURE_MAG_FILTER, GLES32.GL_LINEAR);
+            state.bindTexture(TextureManager.UPLOAD_UNIT, 0);
+            GLES32.glBindRenderbuffer(GLES32.GL_RENDERBUFFER, target.depth);
+            GLES32.glRenderbufferStorage(GLES32.GL_RENDERBUFFER, GLES32.GL_DEPTH24_STENCIL8, target.width, target.height);
+            GLES32.glBindRenderbuffer(GLES32.GL_RENDERBUFFER, 0);
+        }
+
+        private void check() {
+            final int status = GLES32.glCheckFramebufferStatus(GLES32.GL_FRAMEBUFFER);
+            GLES32.glBindFramebuffer(GLES32.GL_FRAMEBUFFER, 0);
+            if (status != GLES32.GL_FRAMEBUFFER_COMPLETE) {
+                throw new RuntimeException("Framebuffer could not be setup.");
+            }
+        }
+
+        @Override
+        public void delete(Target target) {
+            GLES32.glDeleteFramebuffers(1, new int[] { target.fbo }, 0);
+            GLES32.glDeleteTextures(1, new int[] { target.color }, 0);
+            GLES32.glDeleteRenderbuffers(1, new int[] { target.depth }, 0);
+            RenderState.get().forgetTexture(target.color);
+            TextureManager.get().release(target.color);
+        }
+    };
+    private static final RenderTargetPool shared = new RenderTargetPool(GLES);
+
+    private final Backend backend;
+    private final Map<String, Target> targets = new HashMap<>();
+    private long bytes;
+
+    // the targets of the GL thread
+    public static RenderTargetPool get() { return shared; }
+
+    RenderTargetPool(Backend backend) {
+        this.backend = backend;
+    }
+
+    // The target by that name, created or resized as needed. Its handles stay the same until it's released.
+    public Target acquire(String name, int width, int height) {
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("RenderTargetPool: bad size " + width + "x" + height);
+        Target target = targets.get(name);
+        if (target != null && target.width == width && target.height == height) return target;
+
+        if (target != null) bytes -= target.bytes();
+        final boolean created = target == null;
+        if (created) target = new Target();
+        target.width = width;
+        target.height = height;
+        if (created) {
+            backend.create(target);
+            targets.put(name, target);
+        } else {
+            backend.resize(target);
+        }
+        bytes += target.bytes();
+        return target;
+    }
+
+    public void release(String name) {
+        final Target target = targets.remove(name);
+        if (target == null) return;
+        backend.delete(target);
+        bytes -= target.bytes();
+    }
+
+    public void releaseAll() {
+        for (Target target : targets.values()) backend.delete(target);
+        targets.clear();
+        bytes = 0;
+    }
+
+    // forgets everything without deleting, e.g. after the context was recreated and took the targets with it
+    public void reset() {
+        targets.clear();
+        bytes = 0;
+    }
+
+    // GPU memory held by the targets, in bytes
+    public long memory() { return bytes; }
+    public int size() { return targets.size(); }
+}
@@ -0,0 +1,96 @@
+package com.sam.maze;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// GL objects shared by key, e.g. textures by drawable and programs by their shader files. Every acquire()
+// hands out a Handle. An object nobody holds any more stays until trim() or until the context goes,
+// so the next world reuses what the last one loaded. GL thread only.
+public class ResourceRegistry {
+    private static final ResourceRegistry shared = new ResourceRegistry();
+
+    private static final class Entry {
+        final Object resource;
+        final Consumer<Object> delete;
+        int refs;
+
+        Entry(Object resource, Consumer<Object> delete) {
+            this.resource = resource;
+            this.delete = delete;
+        }
+    }
+
+    // One user's share of a resource. Closing it twice releases it once.
+    public static final class Handle<T> implements AutoCloseable {
+        private final ResourceRegistry registry;
+        private final String key;
+        private final Entry entry;
+        private boolean closed;
+
+        private Handle(ResourceRegistry registry, String key, Entry entry) {
+            this.registry = registry;
+            this.key = key;
+            this.entry = entry;
+        }
+
+        @SuppressWarnings("unchecked")
+        public T get() { return (T) entry.resource; }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            registry.release(key, entry);
+        }
+    }
+
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    // the resources of the GL thread
+    public static ResourceRegistry get() { return shared; }
+
+    ResourceRegistry() {}
+
+    // The resource under that key, created on first use. delete is called with it by trim() once no handle is open.
+    @SuppressWarnings("unchecked")
+    public <T> Handle<T> acquire(String key, Supplier<T> create, Consumer<T> delete) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry(create.get(), (Consumer<Object>) delete);
+            entries.put(key, entry);
+        }
+        ++entry.refs;
+        return new Handle<>(this, key, entry);
+    }
+
+    private void release(String key, Entry entry) {
+        if (entries.get(key) != entry) return; // from before a reset()
+        --entry.refs;
+    }
+
+    // Deletes what nobody holds, e.g. when the game ends while the context may live on
+    public void trim() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            final Entry entry = it.next();
+            if (entry.refs > 0) continue;
+            it.remove();
+            entry.delete.accept(entry.resource);
+        }
+    }
+
+    // forgets everything without deleting, e.g. after the context was recreated and took the objects with it
+    public void reset() {
+        entries.clear();
+    }
+
+    public int refs(String key) {
+        final Entry entry = entries.get(key);
+        return entry != null ? entry.refs : 0;
+    }
+
+    public int size() { return entries.size(); }
+}
@@ -1,19 +1,37 @@
 package com.sam.maze;
 
 import android.content.Context;
+import android.content.pm.ApplicationInfo;
 import android.content.res.Resources;
 import android.opengl.GLES32;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 public class Shader {
     private String vertexShader, fragmentShader;
     private int programHandle;
+    private final Map<String, Integer> locations = new HashMap<>(); // filled once after linking
+    private final boolean debug; // check for errors after every call, debuggable builds only
+    private static int current; // the program in use
+
+    // the program from its binary if the cache has one that loads, compiled otherwise
+    private void setup(ProgramCache cache) {
+        programHandle = cache.load(vertexShader, fragmentShader);
+        if (programHandle == 0) {
+            compile();
+            cache.store(programHandle, vertexShader, fragmentShader);
+        }
+        introspect();
+        current = 0; // may be a new context, where nothing is in use yet
+        use();
+    }
 
-    private void setup() {
+    private void compile() {
         int vertexShaderHandle = GLES32.glCreateShader(GLES32.GL_VERTEX_SHADER);
         String message = "";
         if (vertexShaderHandle != 0)
@@ -67,7 +85,8 @@ public class Shader {
             GLES32.glBindAttribLocation(programHandle, 0, "a_Position");
             GLES32.glBindAttribLocation(programHandle, 1, "a_Color");
 
-            // Link the two shaders together into a program.
+            // Link the two shaders together into a program, one the cache can keep.
+            GLES32.glProgramParameteri(programHandle, GLES32.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES32.GL_TRUE);
             GLES32.glLinkProgram(programHandle);
 
             // Get the link status.
@@ -83,14 +102,39 @@ public class Shader {
             }
         }
 
+        // the program keeps what it needs, the shaders go with it
+        GLES32.glDeleteShader(vertexShaderHandle);
+        GLES32.glDeleteShader(fragmentShaderHandle);
         if (programHandle == 0)
         {
             throw new RuntimeException("Error creating program.\n"+message);
         }
-        use();
+    }
+
+    // Caches the location of every active uniform and connects the uniform blocks to their binding points.
+    private void introspect() {
+        final int [] count = new int[1], size = new int[1], type = new int[1];
+        GLES32.glGetProgramiv(programHandle, GLES32.GL_ACTIVE_UNIFORMS, count, 0);
+        for (int i = 0; i < count[0]; ++i) {
+            final String name = GLES32.glGetActiveUniform(programHandle, i, size, 0, type, 0);
+            locations.put(name, GLES32.glGetUniformLocation(programHandle, name));
+            if (name.endsWith("[0]")) {
+                // arrays of plain types are listed once, by their first element
+                final String array = name.substring(0, name.length() - 3);
+                locations.put(array, locations.get(name));
+                for (int k = 1; k < size[0]; ++k)
+                    locations.put(array + "[" + k + "]", GLES32.glGetUniformLocation(programHandle, array + "[" + k + "]"));
+            }
+        }
+
+        for (int binding = 0; binding < UniformBlock.NAMES.length; ++binding) {
+            final int block = GLES32.glGetUniformBlockIndex(programHandle, UniformBlock.NAMES[binding]);
+            if (block != GLES32.GL_INVALID_INDEX) GLES32.glUniformBlockBinding(programHandle, block, binding);
+        }
     }
 
     public Shader(Context context, String vertex, String fragment) {
+        debug = (context.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
         try {
             Resources resources = context.getResources();
             InputStream inputStream = resources.getAssets().open(vertex);
@@ -102,56 +146,78 @@ public class Shader {
         } catch (IOException exception) {
             throw new RuntimeException("Error: Couldn't open shader file:\n"+exception.getMessage());
         }
-        setup();
+        setup(ProgramCache.get(context));
     }
 
-    private int location(String name) {
-        int location = GLES32.glGetUniformLocation(programHandle, name);
-//        if (location == -1)
-//            throw new RuntimeException("Couldn't retrieve location of " + name);
-        return location;
+    // The program of these files for one user, compiled once however many hold it. Uniforms are
+    // program state, so every user sets the ones it relies on before drawing.
+    public static ResourceRegistry.Handle<Shader> acquire(Context context, String vertex, String fragment) {
+        return ResourceRegistry.get().acquire("program " + vertex + " " + fragment, () -> new Shader(context, vertex, fragment), Shader::delete);
+    }
 
+    // GL thread only, the shader can't be used afterwards
+    public void delete() {
+        if (current == programHandle) current = 0;
+        GLES32.glDeleteProgram(programHandle);
+        programHandle = 0;
+        locations.clear();
+    }
+
+    // The location of a uniform, -1 if the program has no such uniform. Keep it instead of the name on hot paths.
+    public int handle(String name) {
+        Integer location = locations.get(name);
+        return location != null ? location : -1;
     }
 
     public void use() {
+        if (current == programHandle) return;
         GLES32.glUseProgram(programHandle);
+        current = programHandle;
     }
 
-    public void uniform(String name, boolean value) {
+    public void uniform(String name, boolean value) { uniform(handle(name), value); }
+    public void uniform(String name, int value) { uniform(handle(name), value); }
+    public void uniform(String name, float value) { uniform(handle(name), value); }
+    public void uniform(String name, float[] matrix) { uniform(handle(name), matrix); }
+    public void uniform(String name, Vec3 v) { uniform(handle(name), v); }
+    public void uniform(String name, Vec2 v) { uniform(handle(name), v); }
+
+    public void uniform(int location, boolean value) {
         use();
-        GLES32.glUniform1i(location(name), value ? 1 : 0);
+        GLES32.glUniform1i(location, value ? 1 : 0);
         checkErrors();
     }
 
-    public void uniform(String name, int value) {
+    public void uniform(int location, int value) {
         use();
-        GLES32.glUniform1i(location(name), value);
+        GLES32.glUniform1i(location, value);
         checkErrors();
     }
-    public void uniform(String name, float value) {
+    public void uniform(int location, float value) {
         use();
-        GLES32.glUniform1f(location(name), value);
+        GLES32.glUniform1f(location, value);
         checkErrors();
     }
-    public void uniform(String name, float[] matrix) {
+    public void uniform(int location, float[] matrix) {
         use();
         if (matrix.length == 16)
-            GLES32.glUniformMatrix4fv(location(name), 1, false, matrix, 0);
+            GLES32.glUniformMatrix4fv(location, 1, false, matrix, 0);
         else if (matrix.length == 9)
-            GLES32.glUniformMatrix3fv(location(name), 1, false, matrix, 0);
+            GLES32.glUniformMatrix3fv(location, 1, false, matrix, 0);
         checkErrors();
     }
-    public void uniform(String name, Vec3 v) {
+    public void uniform(int location, Vec3 v) {
         use();
-        GLES32.glUniform3f(location(name), v.x, v.y, v.z);
+        GLES32.glUniform3f(location, v.x, v.y, v.z);
         checkErrors();
     }
-    public void uniform(String name, Vec2 v) {
+    public void uniform(int location, Vec2 v) {
         use();
-        GLES32.glUniform2f(location(name), v.x, v.y);
+        GLES32.glUniform2f(location, v.x, v.y);
         checkErrors();
     }
-    private static void checkErrors() {
+    private void checkErrors() {
+        if (!debug) return;
         int error = GLES32.glGetError();
         if (error != GLES32.GL_NO_ERROR) {
             throw new RuntimeException("OpenGL Error number " + error);
@@ -0,0 +1,193 @@
+package com.sam.maze;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.opengl.GLES32;
+import android.opengl.GLUtils;
+import android.util.Log;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+// Owns the textures of the GL context: loads every drawable once, however many models use it,
+// gives every texture its own texture unit as long as there are enough, and keeps the sampling
+// settings in one place. Drawables with an ETC2 copy in assets/textures (see the compressTextures
+// task) are uploaded compressed with their prebuilt mipmaps, all others are decoded.
+public class TextureManager {
+    private static final TextureManager shared = new TextureManager(0);
+
+    // all textures are sampled the same way
+    private static final int WRAP = GLES32.GL_REPEAT;
+    private static final int MIN_FILTER = GLES32.GL_LINEAR_MIPMAP_LINEAR, MAG_FILTER = GLES32.GL_LINEAR;
+    private static final boolean MIPMAPS = true;
+
+    private static final String COMPRESSED = "textures/%s.ktx";
+
+    static final int UPLOAD_UNIT = 0; // textures are bound here while uploading, so it isn't handed out
+
+    private final Map<Integer, Integer> textures = new HashMap<>(); // drawable -> texture
+    private final Map<Integer, Integer> units = new HashMap<>(); // texture -> unit
+    private int maxUnits, nextUnit = UPLOAD_UNIT + 1;
+
+    // the textures of the GL thread
+    public static TextureManager get() { return shared; }
+
+    // 0 asks GL for the number of units when the first one is needed
+    TextureManager(int maxUnits) {
+        this.maxUnits = maxUnits;
+    }
+
+    // forgets all textures and units, e.g. after the context was recreated
+    public synchronized void reset() {
+        textures.clear();
+        units.clear();
+        nextUnit = UPLOAD_UNIT + 1;
+    }
+
+    // Decoding needs no GL context, it can run on any thread.
+    static Bitmap decode(Context context, int resourceId) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inScaled = false;
+        return BitmapFactory.decodeResource(context.getResources(), resourceId, options);
+    }
+
+    // The compressed copy of a drawable, mapped from the APK, or null if there is none. Any thread.
+    static KtxTexture map(Context context, int resourceId) {
+        final String name = String.format(COMPRESSED, context.getResources().getResourceEntryName(resourceId));
+        try (AssetFileDescriptor fd = context.getResources().getAssets().openFd(name);
+             FileInputStream stream = fd.createInputStream()) {
+            // the mapping stays valid after the file is closed
+            return new KtxTexture(stream.getChannel().map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength()));
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // true if the drawable is uploaded already and doesn't have to be decoded again
+    public synchronized boolean has(int resourceId) {
+        return textures.containsKey(resourceId);
+    }
+
+    // the texture of a drawable, uploaded on first use, see acquire()
+    private int load(Context context, int resourceId) {
+        Integer texture;
+        synchronized (this) {
+            texture = textures.get(resourceId);
+        }
+        if (texture != null) return texture;
+
+        final KtxTexture compressed = map(context, resourceId);
+        if (compressed != null) {
+            final int tex = upload(resourceId, compressed);
+            if (tex != 0) return tex;
+        }
+        return upload(resourceId, decode(context, resourceId));
+    }
+
+    // Uploads a compressed drawable with all its levels. Returns 0 if the driver refuses it,
+    // the caller falls back to decoding the drawable then.
+    public int upload(int resourceId, KtxTexture ktx) {
+        synchronized (this) {
+            Integer texture = textures.get(resourceId);
+            if (texture != null) return texture;
+        }
+
+        final int tex = create(ktx.levels.length > 1);
+        while (GLES32.glGetError() != GLES32.GL_NO_ERROR); // only report errors of this upload
+        for (int level = 0; level < ktx.levels.length; ++level) {
+            GLES32.glCompressedTexImage2D(GLES32.GL_TEXTURE_2D, level, ktx.internalFormat,
+                    ktx.levelWidth(level), ktx.levelHeight(level), 0, ktx.levels[level].remaining(), ktx.levels[level]);
+        }
+        // a partial chain is complete up to its last level, otherwise mipmapped sampling would be black
+        GLES32.glTexParameteri(GLES32.GL_TEXTURE_2D, GLES32.GL_TEXTURE_MAX_LEVEL, ktx.levels.length - 1);
+        final int error = GLES32.glGetError();
+        if (error != GLES32.GL_NO_ERROR) {
+            Log.w("Maze", "Compressed texture rejected, error " + error);
+            GLES32.glDeleteTextures(1, new int[] { tex }, 0);
+            return 0;
+        }
+
+        synchronized (this) {
+            textures.put(resourceId, tex);
+        }
+        return tex;
+    }
+
+    // uploads a decoded drawable unless it is there already; the bitmap is recycled either way
+    public int upload(int resourceId, Bitmap bitmap) {
+        synchronized (this) {
+            Integer texture = textures.get(resourceId);
+            if (texture != null) {
+                bitmap.recycle();
+                return texture;
+            }
+        }
+
+        final int tex = create(MIPMAPS);
+        GLUtils.texImage2D(GLES32.GL_TEXTURE_2D, 0, bitmap, 0);
+        if (MIPMAPS) GLES32.glGenerateMipmap(GLES32.GL_TEXTURE_2D);
+
+        bitmap.recycle();
+
+        synchronized (this) {
+            textures.put(resourceId, tex);
+        }
+        return tex;
+    }
+
+    // a new texture with the shared settings, bound to the upload unit
+    private static int create(boolean mipmaps) {
+        final int [] tex = new int[1];
+        GLES32.glGenTextures(1, tex, 0);
+        if (tex[0] == 0) {
+            throw new RuntimeException("Error loading texture.");
+        }
+
+        RenderState.get().bindTexture(UPLOAD_UNIT, tex[0]);
+        GLES32.glTexParameteri(GLES32.GL_TEXTURE_2D, GLES32.GL_TEXTURE_WRAP_S, WRAP);
+        GLES32.glTexParameteri(GLES32.GL_TEXTURE_2D, GLES32.GL_TEXTURE_WRAP_T, WRAP);
+        GLES32.glTexParameteri(GLES32.GL_TEXTURE_2D, GLES32.GL_TEXTURE_MIN_FILTER, mipmaps ? MIN_FILTER : MAG_FILTER);
+        GLES32.glTexParameteri(GLES32.GL_TEXTURE_2D, GLES32.GL_TEXTURE_MAG_FILTER, MAG_FILTER);
+        return tex[0];
+    }
+
+    // The unit a texture is bound to for drawing. Once all units are taken, textures start sharing them.
+    public synchronized int unit(int texture) {
+        Integer unit = units.get(texture);
+        if (unit != null) return unit;
+
+        if (maxUnits == 0) {
+            final int [] max = new int[1];
+            GLES32.glGetIntegerv(GLES32.GL_MAX_COMBINED_TEXTURE_IMAGE_UNITS, max, 0);
+            maxUnits = Math.max(max[0], 8); // GLES 3 guarantees 32 anyway
+        }
+        unit = nextUnit;
+        nextUnit = nextUnit + 1 < maxUnits ? nextUnit + 1 : UPLOAD_UNIT + 1;
+        units.put(texture, unit);
+        return unit;
+    }
+
+    // A drawable's texture for one user. It stays loaded for the next user after the last handle
+    // is closed, until the registry is trimmed.
+    public ResourceRegistry.Handle<Integer> acquire(Context context, int resourceId) {
+        return ResourceRegistry.get().acquire("texture " + resourceId, () -> load(context, resourceId), this::delete);
+    }
+
+    // GL thread only
+    public void delete(int texture) {
+        GLES32.glDeleteTextures(1, new int[] { texture }, 0);
+        RenderState.get().forgetTexture(texture);
+        release(texture);
+    }
+
+    // gives up the unit of a texture that was deleted
+    public synchronized void release(int texture) {
+        units.remove(texture);
+        textures.values().remove(texture);
+    }
+}
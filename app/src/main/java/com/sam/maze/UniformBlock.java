@@ -0,0 +1,78 @@
+package com.sam.maze;
+
+import android.opengl.GLES32;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+// A std140 uniform buffer shared by all programs that declare the block. The data is kept on the CPU,
+// bind() uploads the range that changed since the last upload. GL thread only.
+public class UniformBlock {
+    // binding points, every Shader connects the blocks it declares by these names
+    static final int FRAME = 0, LIGHTS = 1;
+    static final String [] NAMES = { "Frame", "Lights" };
+
+    // Frame: mat4 view, proj; vec3 viewPos
+    static final int VIEW = 0, PROJ = 16, VIEW_POS = 32, FRAME_SIZE = 36;
+
+    private final int binding, ubo;
+    private final FloatBuffer data;
+    private int dirtyFrom, dirtyTo; // in floats
+
+    public UniformBlock(int binding, int floats) {
+        this.binding = binding;
+        dirtyTo = floats;
+        data = ByteBuffer.allocateDirect(floats * Model.bytesPerFloat).order(ByteOrder.nativeOrder()).asFloatBuffer();
+
+        int [] objId = new int[1];
+        GLES32.glGenBuffers(1, objId, 0);
+        ubo = objId[0];
+        GLES32.glBindBuffer(GLES32.GL_UNIFORM_BUFFER, ubo);
+        GLES32.glBufferData(GLES32.GL_UNIFORM_BUFFER, floats * Model.bytesPerFloat, null, GLES32.GL_DYNAMIC_DRAW);
+        GLES32.glBindBuffer(GLES32.GL_UNIFORM_BUFFER, 0);
+    }
+
+    // offsets count floats, std140 puts a vec3 on a 4 float boundary and a mat4 takes 16
+    public void put(int offset, float [] values) {
+        data.position(offset);
+        data.put(values);
+        touch(offset, offset + values.length);
+    }
+
+    public void put(int offset, float x, float y, float z) {
+        data.put(offset, x).put(offset + 1, y).put(offset + 2, z);
+        touch(offset, offset + 3);
+    }
+
+    public void put(int offset, float value) {
+        data.put(offset, value);
+        touch(offset, offset + 1);
+    }
+
+    private void touch(int from, int to) {
+        if (dirtyFrom == dirtyTo) {
+            dirtyFrom = from;
+            dirtyTo = to;
+        } else {
+            dirtyFrom = Math.min(dirtyFrom, from);
+            dirtyTo = Math.max(dirtyTo, to);
+        }
+    }
+
+    // makes this buffer the one behind its binding point
+    public void bind() {
+        if (dirtyFrom != dirtyTo) {
+            data.position(dirtyFrom);
+            GLES32.glBindBuffer(GLES32.GL_UNIFORM_BUFFER, ubo);
+            GLES32.glBufferSubData(GLES32.GL_UNIFORM_BUFFER, dirtyFrom * Model.bytesPerFloat, (dirtyTo - dirtyFrom) * Model.bytesPerFloat, data);
+            GLES32.glBindBuffer(GLES32.GL_UNIFORM_BUFFER, 0);
+            dirtyFrom = dirtyTo = 0;
+        }
+        GLES32.glBindBufferBase(GLES32.GL_UNIFORM_BUFFER, binding, ubo);
+    }
+
+    public void delete() {
+        GLES32.glDeleteBuffers(1, new int[] { ubo }, 0);
+    }
+}
@@ -1,6 +1,9 @@
 package com.sam.maze;
 
 public class Vec2 {
+    // shared, never modify it
+    public static final Vec2 ZERO = new Vec2(0.0f, 0.0f);
+
     public float x, y;
     public Vec2(float x, float y) {
         this.x = x;
@@ -13,4 +16,14 @@ public class Vec2 {
         return new Vec2(v*x, v*y);
     }
 
+    // in place, for per-frame code: these return this (or dest) and allocate nothing
+    public Vec2 set(float x, float y) {
+        this.x = x;
+        this.y = y;
+        return this;
+    }
+    public Vec2 set(Vec2 other) { return set(other.x, other.y); }
+    public Vec2 addInPlace(Vec2 other) { return set(x+other.x, y+other.y); }
+    public Vec2 mulInPlace(float v) { return set(v*x, v*y); }
+    public Vec2 mulInto(float v, Vec2 dest) { return dest.set(v*x, v*y); }
 }
@@ -1,6 +1,9 @@
 package com.sam.maze;
 
 public class Vec3 {
+    // shared, never modify them
+    public static final Vec3 ZERO = new Vec3(0.0f), ONE = new Vec3(1.0f), UP = new Vec3(0.0f, 0.0f, 1.0f);
+
     public float x, y, z;
 
     public Vec3(float x, float y, float z) {
@@ -19,4 +22,20 @@ public class Vec3 {
     public Vec3 mul(float v) { return new Vec3(v*x, v*y, v*z); }
     public Vec3 normalize() { return mul(1.0f / abs()); }
     public float abs() { return (float)Math.sqrt(x*x + y*y + z*z); }
+
+    // in place, for per-frame code: these return this (or dest) and allocate nothing
+    public Vec3 set(float x, float y, float z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        return this;
+    }
+    public Vec3 set(Vec3 other) { return set(other.x, other.y, other.z); }
+    public Vec3 addInPlace(Vec3 other) { return set(x+other.x, y+other.y, z+other.z); }
+    public Vec3 addInPlace(float x, float y, float z) { return set(this.x+x, this.y+y, this.z+z); }
+    public Vec3 mulInPlace(float v) { return set(v*x, v*y, v*z); }
+    public Vec3 mulInto(float v, Vec3 dest) { return dest.set(v*x, v*y, v*z); }
+    public Vec3 normalizeInPlace() { return mulInPlace(1.0f / abs()); }
+    // (1 - t) * this + t * to
+    public Vec3 mixInPlace(Vec3 to, float t) { return set((1.0f - t)*x + t*to.x, (1.0f - t)*y + t*to.y, (1.0f - t)*z + t*to.z); }
 }
@@ -0,0 +1,101 @@
+package com.sam.maze;
+
+import java.util.Arrays;
+
+// Splits the maze into square tiles and keeps the ones that are in reach and inside the view frustum.
+// Pure Java: the frustum comes from the same proj * view matrix the shaders get.
+public class VisibleSet {
+    public static final int TILE_SIZE = 8; // lattice points per tile side
+    private static final float Z_MIN = -0.1f, Z_MAX = 1.1f; // path marks up to the tower tops
+    private static final float MARGIN = 0.1f; // walls and towers stick out of their lattice point
+
+    private final int tileSize;
+    private int minX = Integer.MIN_VALUE / 2, minY = Integer.MIN_VALUE / 2, maxX = Integer.MAX_VALUE / 2, maxY = Integer.MAX_VALUE / 2;
+    private final float [] planes = new float[24]; // a, b, c, d of left, right, bottom, top, near, far
+    private long [] tiles = new long[64], previous = new long[64];
+    private int size, previousSize;
+
+    public VisibleSet() {
+        this(TILE_SIZE);
+    }
+
+    public VisibleSet(int tileSize) {
+        this.tileSize = tileSize;
+    }
+
+    // restricts the tiles to the lattice points x0 <= x < x1, y0 <= y < y1 (finite mazes)
+    public void setBounds(int x0, int y0, int x1, int y1) {
+        minX = Math.floorDiv(x0, tileSize);
+        minY = Math.floorDiv(y0, tileSize);
+        maxX = Math.floorDiv(x1 - 1, tileSize);
+        maxY = Math.floorDiv(y1 - 1, tileSize);
+    }
+
+    public int tileSize() { return tileSize; }
+    public int size() { return size; }
+    public int tileX(int i) { return (int)(tiles[i] >> 32); }
+    public int tileY(int i) { return (int)tiles[i]; }
+
+    // Collects the tiles within Manhattan distance limit of (x, y) that intersect the frustum of viewProj
+    // (column-major, as built by android.opengl.Matrix). Returns true if the set differs from the last one.
+    public boolean update(float [] viewProj, float x, float y, float limit) {
+        setPlanes(viewProj);
+
+        long [] swap = previous;
+        previous = tiles;
+        tiles = swap;
+        previousSize = size;
+        size = 0;
+
+        final int tx0 = Math.max(minX, Math.floorDiv((int)Math.floor(x - limit), tileSize));
+        final int ty0 = Math.max(minY, Math.floorDiv((int)Math.floor(y - limit), tileSize));
+        final int tx1 = Math.min(maxX, Math.floorDiv((int)Math.floor(x + limit), tileSize));
+        final int ty1 = Math.min(maxY, Math.floorDiv((int)Math.floor(y + limit), tileSize));
+
+        for (int ty = ty0; ty <= ty1; ++ty) {
+            for (int tx = tx0; tx <= tx1; ++tx) {
+                final float x0 = tx * tileSize - MARGIN, x1 = (tx + 1) * tileSize + MARGIN;
+                final float y0 = ty * tileSize - MARGIN, y1 = (ty + 1) * tileSize + MARGIN;
+                // Manhattan distance to the closest point of the tile
+                final float dx = Math.max(0.0f, Math.max(x0 - x, x - x1));
+                final float dy = Math.max(0.0f, Math.max(y0 - y, y - y1));
+                if (dx + dy > limit || !inFrustum(x0, y0, x1, y1)) continue;
+
+                if (size == tiles.length) tiles = Arrays.copyOf(tiles, 2 * size);
+                tiles[size++] = EndlessMaze.key(tx, ty);
+            }
+        }
+
+        if (size != previousSize) return true;
+        for (int i = 0; i < size; ++i)
+            if (tiles[i] != previous[i]) return true;
+        return false;
+    }
+
+    public boolean contains(int tx, int ty) {
+        final long key = EndlessMaze.key(tx, ty);
+        for (int i = 0; i < size; ++i)
+            if (tiles[i] == key) return true;
+        return false;
+    }
+
+    // Gribb & Hartmann: every plane is the last row of the matrix plus or minus one of the others
+    private void setPlanes(float [] m) {
+        for (int p = 0; p < 6; ++p) {
+            final int row = p / 2;
+            final float sign = p % 2 == 0 ? 1.0f : -1.0f;
+            for (int col = 0; col < 4; ++col)
+                planes[4 * p + col] = m[4 * col + 3] + sign * m[4 * col + row];
+        }
+    }
+
+    // the box is outside if its corner furthest along the normal of some plane is behind it
+    private boolean inFrustum(float x0, float y0, float x1, float y1) {
+        for (int p = 0; p < 24; p += 4) {
+            final float a = planes[p], b = planes[p+1], c = planes[p+2], d = planes[p+3];
+            if (a * (a > 0 ? x1 : x0) + b * (b > 0 ? y1 : y0) + c * (c > 0 ? Z_MAX : Z_MIN) + d < 0.0f)
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,14 @@
+package com.sam.maze;
+
+// Read-only view of the walls of a maze, see Maze for the meaning of the coordinates.
+public interface WallLayout {
+    boolean top(int x, int y);
+    boolean left(int x, int y);
+
+    default boolean bottom(int x, int y) {
+        return top(x, y+1);
+    }
+    default boolean right(int x, int y) {
+        return left(x+1, y);
+    }
+}
@@ -0,0 +1,55 @@
+package com.sam.maze;
+
+import java.util.Random;
+
+// Loop-erased random walks: same uniform spanning tree distribution as Aldous-Broder, but
+// every walk stops as soon as it hits the tree, so the cost is close to linear.
+public class WilsonGenerator implements MazeGenerator {
+    static int randomNeighbour(int cell, int width, int height, Random random) {
+        final int x = cell % width, y = cell / width;
+        while (true) {
+            switch (random.nextInt(4)) {
+                case 0 : if (x > 0) return cell - 1; break;
+                case 1 : if (x < width - 1) return cell + 1; break;
+                case 2 : if (y > 0) return cell - width; break;
+                case 3 : if (y < height - 1) return cell + width; break;
+            }
+        }
+    }
+
+    private static int neighbour(int cell, int width, byte dir) {
+        switch (dir) {
+            case 0 : return cell - 1;
+            case 1 : return cell + 1;
+            case 2 : return cell - width;
+            default : return cell + width;
+        }
+    }
+
+    private static byte direction(int from, int to) {
+        if (to == from - 1) return 0;
+        if (to == from + 1) return 1;
+        return (byte) (to < from ? 2 : 3);
+    }
+
+    @Override
+    public void generate(Maze maze, Random random) {
+        final int width = maze.width, height = maze.height, n = width * height;
+        BitArray inTree = new BitArray(n);
+        byte [] exit = new byte[n]; // last direction taken from each cell = the loop-erased path
+
+        inTree.set(random.nextInt(n));
+        for (int start = 0; start < n; ++start) {
+            int c = start;
+            while (!inTree.get(c)) {
+                int next = randomNeighbour(c, width, height, random);
+                exit[c] = direction(c, next);
+                c = next;
+            }
+            for (c = start; !inTree.get(c); c = neighbour(c, width, exit[c])) {
+                inTree.set(c);
+                maze.connect(c, neighbour(c, width, exit[c]));
+            }
+        }
+    }
+}
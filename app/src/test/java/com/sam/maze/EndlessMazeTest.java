@@ -0,0 +1,58 @@
+package com.sam.maze;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class EndlessMazeTest {
+    private static final int C = EndlessMaze.CHUNK_SIZE;
+
+    @Test
+    public void chunks_areConnectedAcrossSeams() {
+        EndlessMaze maze = new EndlessMaze(42);
+        final int x0 = -C, y0 = -2 * C, size = 3 * C, n = size * size;
+        boolean [] seen = new boolean[n];
+        int [] queue = new int[n];
+        int head = 0, tail = 0;
+        queue[tail++] = 0;
+        seen[0] = true;
+        while (head < tail) {
+            int c = queue[head++], x = c % size, y = c / size;
+            if (x > 0 && !maze.left(x0 + x, y0 + y) && !seen[c - 1]) { seen[c - 1] = true; queue[tail++] = c - 1; }
+            if (x < size - 1 && !maze.right(x0 + x, y0 + y) && !seen[c + 1]) { seen[c + 1] = true; queue[tail++] = c + 1; }
+            if (y > 0 && !maze.top(x0 + x, y0 + y) && !seen[c - size]) { seen[c - size] = true; queue[tail++] = c - size; }
+            if (y < size - 1 && !maze.bottom(x0 + x, y0 + y) && !seen[c + size]) { seen[c + size] = true; queue[tail++] = c + size; }
+        }
+        assertEquals(n, tail);
+    }
+
+    @Test
+    public void evictedChunks_areRegeneratedIdentically() {
+        EndlessMaze maze = new EndlessMaze(7);
+        boolean [] before = new boolean[2 * C * C];
+        for (int i = 0; i < C * C; ++i) {
+            before[2 * i] = maze.top(5 * C + i % C, i / C);
+            before[2 * i + 1] = maze.left(5 * C + i % C, i / C);
+        }
+        maze.retain(0.5f, 0.5f);
+        assertEquals(0, maze.size()); // chunk (5, 0) is too far away
+        for (int i = 0; i < C * C; ++i) {
+            assertEquals(before[2 * i], maze.top(5 * C + i % C, i / C));
+            assertEquals(before[2 * i + 1], maze.left(5 * C + i % C, i / C));
+        }
+    }
+
+    @Test
+    public void retain_keepsChunksAroundPlayer() {
+        EndlessMaze maze = new EndlessMaze(1);
+        for (int cy = -4; cy <= 4; ++cy)
+            for (int cx = -4; cx <= 4; ++cx)
+                maze.top(cx * C, cy * C);
+        assertEquals(81, maze.size());
+        maze.retain(-0.5f, 0.5f); // chunk (-1, 0)
+        int side = 2 * EndlessMaze.KEEP_RADIUS + 1;
+        assertEquals(side * side, maze.size());
+        maze.chunk(-1 - EndlessMaze.KEEP_RADIUS, EndlessMaze.KEEP_RADIUS); // corner of the kept area
+        assertEquals(side * side, maze.size());
+    }
+}
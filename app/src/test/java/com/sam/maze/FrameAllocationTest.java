@@ -0,0 +1,83 @@
+package com.sam.maze;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+// Once frames run steadily, their CPU side must not allocate: garbage collections show up as hitches.
+// GL calls do nothing here, this covers the camera, the culling, the instance matrices, the light and frame
+// uniform blocks and the sorting of the draw queue of MazeWorld.draw().
+public class FrameAllocationTest {
+    private final Maze maze = new Maze(60, 60, 42L);
+    private final Camera camera = new Camera(maze, 60, 60);
+    private final VisibleSet visible = new VisibleSet();
+    private final PortalCuller portals = new PortalCuller(maze);
+    private final Lights lights = new Lights();
+    private final Light flashlight = new Light(lights, new Vec3(0.0f), new Vec3(0.8f), new Vec3(0.4f), 1.0f, 0.18f, 0.096f, 0.97f);
+    private final UniformBlock frameBlock = new UniformBlock(UniformBlock.FRAME, UniformBlock.FRAME_SIZE);
+    private final DrawQueue queue = new DrawQueue();
+    private final Model [] models = { model(2, 0.3f), model(1, 0.4f), model(2, 0.55f), model(1, 0.4f) };
+    private final float [] identity = new float[16], floorModel = new float[16];
+    private float [] instances = new float[0];
+    private final float [] viewProj = VisibleSetTest.viewProj(59.5f, 59.5f, -1.0f, -1.0f);
+
+    private static Model model(int texture, float shininess) {
+        Model model = new Model(new float[Model.floatsPerVertex]);
+        model.diffuseTex = model.specularTex = texture; // what the queue sorts by, without taking texture units
+        model.shininess = shininess;
+        return model;
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // wanders back and forth through the maze, so the visible sets keep changing
+    private void frame(int i) {
+        camera.turn((i / 100) % 2 == 0 ? 0.03f : -0.03f, 0.0f);
+        camera.walk(0.05f, (i / 50) % 2 == 0 ? 0.02f : -0.02f);
+        camera.update(i * 16L);
+        flashlight.move(camera.pos.x, camera.pos.y, camera.pos.z + 0.1f);
+        flashlight.turn(camera.dir);
+        lights.bind();
+        frameBlock.put(UniformBlock.VIEW, camera.view);
+        frameBlock.put(UniformBlock.VIEW_POS, camera.viewPos.x, camera.viewPos.y, camera.viewPos.z);
+        frameBlock.bind();
+        visible.update(viewProj, camera.pos.x, camera.pos.y, 15);
+        if (portals.update(camera.pos.x, camera.pos.y, 15, visible)) {
+            instances = MeshBuilder.instanceWalls(portals, instances);
+            instances = MeshBuilder.instanceTowers(portals, instances);
+        }
+        // the queue's order, the draws themselves need a program
+        for (int k = 0; k < models.length; ++k) queue.add(models[(i + k) % models.length], k == 1 ? floorModel : identity);
+        queue.sort();
+        queue.clear();
+    }
+
+    private long frames(int from, int to) {
+        final long before = allocatedBytes();
+        for (int i = from; i < to; ++i) frame(i);
+        return allocatedBytes() - before;
+    }
+
+    @Test
+    public void steadyFrames_allocateNothing() {
+        try {
+            allocatedBytes();
+        } catch (ClassCastException | UnsupportedOperationException | NoClassDefFoundError e) {
+            Assume.assumeNoException(e); // not a HotSpot VM
+        }
+        visible.setBounds(0, 0, 61, 61);
+        camera.place(59.5f, 59.5f, 0.5f, (float)Math.toRadians(-135.0), 0.0f);
+
+        frames(0, 2000); // buffers grow to their steady size
+
+        // the measurement itself allocates a little, the same for no frames at all
+        final long none = frames(2000, 2000);
+        assertEquals("bytes allocated by 2000 frames", none, frames(2000, 4000));
+    }
+}
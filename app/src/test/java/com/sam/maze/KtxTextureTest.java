@@ -0,0 +1,74 @@
+package com.sam.maze;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class KtxTextureTest {
+    private static final int ETC2_RGB8 = 0x9274;
+
+    // a KTX 1 file with the given level sizes, every byte of level i set to i
+    private static ByteBuffer ktx(ByteOrder order, int width, int height, int keyValueBytes, int... levelSizes) {
+        ByteBuffer buf = ByteBuffer.allocate(1024).order(order);
+        buf.put(new byte[] { (byte) 0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte) 0xBB, '\r', '\n', 0x1A, '\n' });
+        buf.putInt(0x04030201);
+        buf.putInt(0).putInt(1).putInt(0); // glType, glTypeSize, glFormat
+        buf.putInt(ETC2_RGB8).putInt(0x1907); // internal, base internal format
+        buf.putInt(width).putInt(height).putInt(0).putInt(0).putInt(1);
+        buf.putInt(levelSizes.length).putInt(keyValueBytes);
+        buf.put(new byte[keyValueBytes]);
+        for (int i = 0; i < levelSizes.length; ++i) {
+            buf.putInt(levelSizes[i]);
+            for (int k = 0; k < levelSizes[i]; ++k) buf.put((byte) i);
+            while (buf.position() % 4 != 0) buf.put((byte) 0);
+        }
+        buf.flip();
+        return buf;
+    }
+
+    @Test
+    public void levels_areSlicedInOrder() {
+        for (ByteOrder order : new ByteOrder[] { ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN }) {
+            KtxTexture tex = new KtxTexture(ktx(order, 16, 8, 8, 64, 16, 8, 8, 8));
+            assertEquals(ETC2_RGB8, tex.internalFormat);
+            assertEquals(16, tex.width);
+            assertEquals(8, tex.height);
+            assertEquals(5, tex.levels.length);
+            assertEquals(64, tex.levels[0].remaining());
+            assertEquals(16, tex.levels[1].remaining());
+            for (int i = 0; i < tex.levels.length; ++i)
+                assertEquals(i, tex.levels[i].get(0));
+            assertEquals(1, tex.levelWidth(4));
+            assertEquals(1, tex.levelHeight(3));
+        }
+    }
+
+    @Test
+    public void unalignedLevels_arePadded() {
+        KtxTexture tex = new KtxTexture(ktx(ByteOrder.LITTLE_ENDIAN, 4, 4, 0, 5, 3));
+        assertEquals(5, tex.levels[0].remaining());
+        assertEquals(3, tex.levels[1].remaining());
+        assertEquals(1, tex.levels[1].get(0));
+    }
+
+    @Test
+    public void brokenFiles_areRejected() {
+        ByteBuffer truncated = ktx(ByteOrder.LITTLE_ENDIAN, 4, 4, 0, 64);
+        truncated.limit(truncated.limit() - 8);
+        ByteBuffer notKtx = ktx(ByteOrder.LITTLE_ENDIAN, 4, 4, 0, 8);
+        notKtx.put(1, (byte) 'X');
+        ByteBuffer tooManyLevels = ktx(ByteOrder.LITTLE_ENDIAN, 4, 4, 0, 8, 8, 8, 8); // 4x4 has 3
+        ByteBuffer hugeLevelCount = ktx(ByteOrder.LITTLE_ENDIAN, 4, 4, 0, 8);
+        hugeLevelCount.putInt(56, Integer.MAX_VALUE);
+        for (ByteBuffer buf : new ByteBuffer[] { truncated, notKtx, tooManyLevels, hugeLevelCount, ByteBuffer.allocate(10) }) {
+            try {
+                new KtxTexture(buf);
+                fail();
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.sam.maze;
+
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Test;
+
+// Run with: ./gradlew testDebugUnitTest -PmazeBenchmark --tests '*MazeGeneratorBenchmark'
+public class MazeGeneratorBenchmark {
+    private static final int [] SIZES = { 100, 500, 1000, 2000, 4000 };
+
+    @Test
+    public void cellsPerSecond() {
+        assumeTrue(Boolean.getBoolean("maze.benchmark"));
+
+        MazeGenerator [] generators = { new WilsonGenerator(), new BacktrackerGenerator(), new EllerGenerator(), new KruskalGenerator() };
+        for (MazeGenerator generator : generators) {
+            new Maze(200, 200, generator); // warm up
+            for (int size : SIZES) {
+                long start = System.nanoTime();
+                new Maze(size, size, generator);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%-22s %5dx%-5d %8.0f ms %12.0f cells/s%n",
+                        generator.getClass().getSimpleName(), size, size, seconds * 1000.0, size * (double)size / seconds);
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.sam.maze;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MazeGeneratorTest {
+    static final MazeGenerator [] GENERATORS = {
+            new AldousBroderGenerator(), new WilsonGenerator(), new BacktrackerGenerator(), new EllerGenerator(), new KruskalGenerator()
+    };
+
+    // a perfect maze is a spanning tree: every cell reachable, exactly cells - 1 passages
+    static void assertPerfect(Maze maze) {
+        final int w = maze.width, h = maze.height;
+        int passages = 0;
+        for (int y = 0; y < h; ++y)
+            for (int x = 0; x < w; ++x) {
+                if (x < w - 1 && !maze.right(x, y)) ++passages;
+                if (y < h - 1 && !maze.bottom(x, y)) ++passages;
+            }
+        assertEquals(w * h - 1, passages);
+
+        boolean [] seen = new boolean[w * h];
+        int [] queue = new int[w * h];
+        int head = 0, tail = 0;
+        queue[tail++] = 0;
+        seen[0] = true;
+        while (head < tail) {
+            int c = queue[head++], x = c % w, y = c / w;
+            if (x > 0 && !maze.left(x, y) && !seen[c - 1]) { seen[c - 1] = true; queue[tail++] = c - 1; }
+            if (x < w - 1 && !maze.right(x, y) && !seen[c + 1]) { seen[c + 1] = true; queue[tail++] = c + 1; }
+            if (y > 0 && !maze.top(x, y) && !seen[c - w]) { seen[c - w] = true; queue[tail++] = c - w; }
+            if (y < h - 1 && !maze.bottom(x, y) && !seen[c + w]) { seen[c + w] = true; queue[tail++] = c + w; }
+        }
+        assertEquals(w * h, tail);
+    }
+
+    @Test
+    public void generators_producePerfectMazes() {
+        for (MazeGenerator generator : GENERATORS) {
+            assertPerfect(new Maze(37, 23, generator));
+            assertPerfect(new Maze(1, 9, generator));
+            assertPerfect(new Maze(9, 1, generator));
+        }
+    }
+
+    @Test
+    public void outerWalls_areClosedExceptEntrance() {
+        for (MazeGenerator generator : GENERATORS) {
+            Maze maze = new Maze(12, 8, generator);
+            assertFalse(maze.left(0, 0));
+            for (int y = 1; y < 8; ++y) assertTrue(maze.left(0, y));
+            for (int y = 0; y < 8; ++y) assertTrue(maze.right(11, y));
+            for (int x = 0; x < 12; ++x) {
+                assertTrue(maze.top(x, 0));
+                assertTrue(maze.bottom(x, 7));
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.sam.maze;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class MazeSnapshotTest {
+    private static void assertSameMaze(Maze expected, Maze actual) {
+        assertEquals(expected.width, actual.width);
+        assertEquals(expected.height, actual.height);
+        assertArrayEquals(expected.walls.words(), actual.walls.words());
+        assertArrayEquals(expected.visit.words(), actual.visit.words());
+    }
+
+    @Test
+    public void seed_reproducesMaze() {
+        assertSameMaze(new Maze(40, 30, 1234L), new Maze(40, 30, 1234L));
+        assertSameMaze(new Maze(40, 30, new EllerGenerator(), 99L), new Maze(40, 30, new EllerGenerator(), 99L));
+        assertFalse(java.util.Arrays.equals(new Maze(40, 30, 1L).walls.words(), new Maze(40, 30, 2L).walls.words()));
+    }
+
+    @Test
+    public void roundTrip_restoresWallsPathAndPlayer() throws IOException {
+        Maze maze = new Maze(1000, 1000, 5L);
+        maze.solve();
+        File file = File.createTempFile("maze", ".sav");
+        try {
+            new MazeSnapshot(maze, maze.getSeed(), 12.5f, 3.25f, 0.5f, -2.0f, 0.1f, 61_000L).write(file);
+
+            MazeSnapshot loaded = MazeSnapshot.read(file);
+
+            assertSameMaze(maze, loaded.maze);
+            assertEquals(5L, loaded.maze.getSeed());
+            assertEquals(12.5f, loaded.posX, 0.0);
+            assertEquals(3.25f, loaded.posY, 0.0);
+            assertEquals(-2.0f, loaded.rotXY, 0.0);
+            assertEquals(61_000L, loaded.getElapsedMillis());
+            assertTrue(loaded.maze.solve(new AStarSolver()));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void endless_keepsOnlySeed() throws IOException {
+        File file = File.createTempFile("maze", ".sav");
+        try {
+            new MazeSnapshot(null, 77L, -40.5f, 8.5f, 0.5f, 0.0f, 0.0f, 0L).write(file);
+            MazeSnapshot loaded = MazeSnapshot.read(file);
+            assertTrue(loaded.isEndless());
+            assertEquals(77L, loaded.seed);
+            assertEquals(-40.5f, loaded.posX, 0.0);
+        } finally {
+            file.delete();
+        }
+    }
+
+    // a save with one of its header fields overwritten
+    private static void assertRejected(Maze maze, int offset, int value) throws IOException {
+        File file = File.createTempFile("maze", ".sav");
+        try {
+            new MazeSnapshot(maze, 3L, 0.5f, 0.5f, 0.5f, 0.0f, 0.0f, 0L).write(file);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.seek(offset);
+                raf.writeInt(Integer.reverseBytes(value)); // little endian
+            }
+            MazeSnapshot.read(file);
+            fail("read " + value + " at " + offset);
+        } catch (IOException expected) {
+            // no allocation error
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void read_rejectsBadSizes() throws IOException {
+        final int WIDTH = 7, HEIGHT = 11, RAW_BYTES = 51; // after magic, version and flags; then after the player
+        Maze maze = new Maze(10, 10, 3L);
+        assertRejected(maze, WIDTH, -5);
+        assertRejected(maze, WIDTH, 0);
+        assertRejected(maze, WIDTH, 1000); // bigger than its bitsets
+        assertRejected(maze, HEIGHT, Integer.MAX_VALUE);
+        assertRejected(maze, RAW_BYTES, 1 << 30); // more than its body inflates to
+        assertRejected(null, WIDTH, 10); // endless has no size
+        assertRejected(null, RAW_BYTES, 1 << 30);
+    }
+
+    @Test
+    public void rawBytes_coverBothBitsets() {
+        Maze maze = new Maze(1000, 700, 3L);
+        assertEquals(8L * (maze.walls.words().length + maze.visit.words().length), MazeSnapshot.rawBytes(1000, 700));
+        assertEquals(-1L, MazeSnapshot.rawBytes(Integer.MAX_VALUE, Integer.MAX_VALUE));
+        assertEquals(-1L, MazeSnapshot.rawBytes(40000, 40000));
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejectsOtherFiles() throws IOException {
+        File file = File.createTempFile("maze", ".sav");
+        try {
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write(new byte[100]);
+            }
+            MazeSnapshot.read(file);
+        } finally {
+            file.delete();
+        }
+    }
+}
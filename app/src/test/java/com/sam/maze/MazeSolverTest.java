@@ -0,0 +1,67 @@
+package com.sam.maze;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MazeSolverTest {
+    private static final MazeSolver [] SOLVERS = { new BfsSolver(), new AStarSolver(), new DeadEndSolver() };
+
+    private static boolean [] path(Maze maze) {
+        boolean [] marked = new boolean[maze.width * maze.height];
+        for (int i = 0; i < marked.length; ++i)
+            marked[i] = maze.marked(i);
+        return marked;
+    }
+
+    // the marked cells form a simple chain from (w-1, h-1) to (0, 0)
+    private static void assertChain(Maze maze, boolean [] marked) {
+        final int w = maze.width, n = w * maze.height;
+        assertTrue(marked[n - 1]);
+        assertTrue(marked[0]);
+        for (int c = 0; c < n; ++c) {
+            if (!marked[c]) continue;
+            int neighbours = 0;
+            for (int dir = 0; dir < 4; ++dir) {
+                int next = maze.step(c, dir);
+                if (next >= 0 && marked[next]) ++neighbours;
+            }
+            assertEquals(c == 0 || c == n - 1 ? 1 : 2, neighbours);
+        }
+    }
+
+    @Test
+    public void solvers_agreeOnPerfectMazes() {
+        for (MazeGenerator generator : MazeGeneratorTest.GENERATORS) {
+            Maze maze = new Maze(31, 17, generator);
+            boolean [] expected = null;
+            for (MazeSolver solver : SOLVERS) {
+                assertTrue(maze.solve(solver));
+                boolean [] marked = path(maze);
+                assertChain(maze, marked);
+                if (expected == null) expected = marked;
+                for (int i = 0; i < marked.length; ++i)
+                    assertEquals(expected[i], marked[i]);
+            }
+        }
+    }
+
+    @Test
+    public void solvers_handleLongCorridors() {
+        // backtracker mazes have paths of hundreds of thousands of cells, deep enough to overflow a recursive dfs
+        Maze maze = new Maze(800, 800, new BacktrackerGenerator());
+        for (MazeSolver solver : SOLVERS) {
+            assertTrue(maze.solve(solver));
+            assertChain(maze, path(maze));
+        }
+    }
+
+    @Test
+    public void solvers_reuseBuffersAcrossSizes() {
+        MazeSolver solver = new AStarSolver();
+        assertTrue(new Maze(40, 40).solve(solver));
+        Maze small = new Maze(3, 5);
+        assertTrue(small.solve(solver));
+        assertChain(small, path(small));
+    }
+}
@@ -0,0 +1,109 @@
+package com.sam.maze;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MeshBuilderTest {
+    private static final int F = Model.floatsPerVertex;
+
+    // one triangle with a distinct normal, stands in for the real wall / tower geometry
+    private static final float [] WALL = {
+            0.0f, 0.05f, 1.0f,  0.0f, 1.0f, 0.0f,  0.0f, 1.0f,
+            1.0f, 0.05f, 1.0f,  0.0f, 1.0f, 0.0f,  1.0f, 1.0f,
+            0.0f, 0.05f, 0.0f,  0.0f, 1.0f, 0.0f,  0.0f, 0.0f,
+    };
+    private static final float [] TOWER = {
+            0.1f, 0.0f, 0.0f,  1.0f, 0.0f, 0.0f,  0.0f, 0.0f,
+            0.0f, 0.1f, 0.0f,  0.0f, 1.0f, 0.0f,  1.0f, 0.0f,
+            0.0f, 0.0f, 1.0f,  0.0f, 0.0f, 1.0f,  0.0f, 1.0f,
+            0.1f, 0.0f, 1.0f,  1.0f, 0.0f, 0.0f,  1.0f, 1.0f,
+    };
+
+    private static final MeshBuilder BUILDER = new MeshBuilder(WALL, TOWER, -0.04f);
+
+    @Test
+    public void wallVertices_matchMazeLayout() {
+        Maze maze = new Maze(23, 17, 3L);
+        int walls = 0, towers = 0;
+        for (int y = 0; y <= maze.height; ++y)
+            for (int x = 0; x <= maze.width; ++x) {
+                walls += (maze.top(x, y) ? 1 : 0) + (maze.left(x, y) ? 1 : 0);
+                if (MeshBuilder.hasTower(maze, x, y)) ++towers;
+            }
+
+        float [] baked = BUILDER.bakeWalls(maze, 0, 0, maze.width + 1, maze.height + 1);
+        assertEquals(walls * BUILDER.wallVertices(), baked.length / F);
+        assertEquals(towers * BUILDER.towerVertices(), BUILDER.bakeTowers(maze, 0, 0, maze.width + 1, maze.height + 1).length / F);
+    }
+
+    @Test
+    public void regions_addUpToWholeMaze() {
+        Maze maze = new Maze(40, 33, 8L);
+        final int R = MeshBuilder.REGION_SIZE;
+        int walls = 0, towers = 0;
+        for (int ry = 0; ry <= maze.height / R; ++ry)
+            for (int rx = 0; rx <= maze.width / R; ++rx) {
+                walls += BUILDER.bakeWalls(maze, rx * R, ry * R, (rx + 1) * R, (ry + 1) * R).length;
+                towers += BUILDER.bakeTowers(maze, rx * R, ry * R, (rx + 1) * R, (ry + 1) * R).length;
+            }
+        assertEquals(BUILDER.bakeWalls(maze, 0, 0, maze.width + 1, maze.height + 1).length, walls);
+        assertEquals(BUILDER.bakeTowers(maze, 0, 0, maze.width + 1, maze.height + 1).length, towers);
+    }
+
+    @Test
+    public void walls_areMovedIntoPlace() {
+        Maze maze = new Maze(2, 1, 1L); // two cells, the wall between them is open
+        float [] baked = BUILDER.bakeWalls(maze, 1, 0, 2, 1); // lattice point (1, 0): only the top wall
+        assertEquals(WALL.length, baked.length);
+        assertArrayEquals(new float[] { 1.0f, 0.05f, 1.0f, 0.0f, 1.0f, 0.0f, 0.0f, 1.0f }, java.util.Arrays.copyOf(baked, F), 1e-6f);
+
+        // left wall of cell (2, 0): turned around z, the front face points towards -x
+        baked = BUILDER.bakeWalls(maze, 2, 0, 3, 1);
+        assertEquals(WALL.length, baked.length);
+        assertArrayEquals(new float[] { 2.0f - 0.05f, 0.0f, 1.0f, -1.0f, 0.0f, 0.0f, 0.0f, 1.0f }, java.util.Arrays.copyOf(baked, F), 1e-6f);
+    }
+
+    @Test
+    public void path_hasOneMarkPerMarkedCell() {
+        Maze maze = new Maze(30, 30, 11L);
+        assertEquals(0, BUILDER.bakePath(maze).length);
+        maze.solve();
+        int marked = 0;
+        for (int i = 0; i < 900; ++i)
+            if (maze.marked(i)) ++marked;
+        float [] baked = BUILDER.bakePath(maze);
+        assertEquals(marked * BUILDER.wallVertices(), baked.length / F);
+        for (int i = 0; i < baked.length; i += F)
+            assertEquals(0.0f, baked[i + 4], 1e-6f); // flat walls: normals have no y component left
+    }
+
+    @Test
+    public void instances_matchBakedWalls() {
+        Maze maze = new Maze(19, 21, 5L);
+        final int w = maze.width + 1, h = maze.height + 1;
+        float [] baked = BUILDER.bakeWalls(maze, 0, 0, w, h);
+        float [] instances = MeshBuilder.instanceWalls(maze, 0, 0, w, h);
+        final int n = instances.length / Model.floatsPerInstance;
+        assertEquals(baked.length / WALL.length, n);
+        assertEquals(BUILDER.bakeTowers(maze, 0, 0, w, h).length / TOWER.length,
+                MeshBuilder.instanceTowers(maze, 0, 0, w, h).length / Model.floatsPerInstance);
+
+        // every instance matrix moves the template onto its baked copy
+        for (int k = 0; k < n; ++k) {
+            final int m = k * Model.floatsPerInstance;
+            for (int v = 0; v < WALL.length; v += F) {
+                final int at = k * WALL.length + v;
+                for (int r = 0; r < 3; ++r) {
+                    float p = instances[m + 12 + r], normal = 0.0f;
+                    for (int c = 0; c < 3; ++c) {
+                        p += instances[m + 4 * c + r] * WALL[v + c];
+                        normal += instances[m + 16 + 3 * c + r] * WALL[v + 3 + c];
+                    }
+                    assertEquals(baked[at + r], p, 1e-5f);
+                    assertEquals(baked[at + 3 + r], normal, 1e-5f);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.sam.maze;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import static org.junit.Assert.*;
+
+public class MeshTest {
+    // the sphere as it was built before, vertex objects through a queue
+    private static Model.Vertex stretch(Model.Vertex a, Model.Vertex b) {
+        Model.Vertex c = new Model.Vertex(a.position.add(b.position).mul(0.5f), a.normal.add(b.normal).mul(0.5f), a.texCoord.add(b.texCoord).mul(0.5f));
+        c.position = c.position.mul(1.0f / c.position.abs());
+        c.normal = c.normal.mul(1.0f / c.normal.abs());
+        if (b.texCoord.y == 0.0f || b.texCoord.y == 1.0f) {
+            c.texCoord.x = a.texCoord.x;
+        } else if (a.texCoord.y == 0.0f || a.texCoord.y == 1.0f) {
+            c.texCoord.x = b.texCoord.x;
+        }
+        return c;
+    }
+
+    private static float [] oldBall(int res) {
+        Queue<Model.Vertex> q = new LinkedList<>();
+        for (int i = 0; i < 4; ++i) {
+            boolean even = i % 2 == 0, big = i > 1;
+            Vec3 leftVec = new Vec3(even ? (big ? 1.0f : -1.0f) : 0.0f, even ? 0.0f : (big ? -1.0f : 1.0f), 0.0f);
+            Vec3 rightVec = new Vec3(even ? 0.0f : (big ? 1.0f : -1.0f), even ? (big ? 1.0f : -1.0f) : 0.0f, 0.0f);
+            Model.Vertex left = new Model.Vertex(leftVec, leftVec, new Vec2(0.25f+0.25f*i, 0.5f));
+            Model.Vertex right = new Model.Vertex(rightVec, rightVec, new Vec2(0.25f*i, 0.5f));
+            q.add(new Model.Vertex(new Vec3(0.0f, 0.0f, 1.0f), new Vec3(0.0f, 0.0f, 1.0f), new Vec2(0.125f+0.25f*i, 0.0f)));
+            q.add(left); q.add(right);
+            q.add(new Model.Vertex(new Vec3(0.0f, 0.0f, -1.0f), new Vec3(0.0f, 0.0f, -1.0f), new Vec2(0.125f+0.25f*i, 1.0f)));
+            q.add(right); q.add(left);
+        }
+        for (int i = 0; i < res; ++i) {
+            int n = q.size() / 3;
+            for (int k = 0; k < n; ++k) {
+                Model.Vertex a = q.remove(), b = q.remove(), c = q.remove();
+                q.add(a); q.add(stretch(a, b)); q.add(stretch(a, c));
+                q.add(stretch(a, b)); q.add(b); q.add(stretch(b, c));
+                q.add(stretch(a, c)); q.add(stretch(b, c)); q.add(c);
+                q.add(stretch(a, c)); q.add(stretch(a, b)); q.add(stretch(b, c));
+            }
+        }
+        return Model.pack(q.toArray(new Model.Vertex[0]));
+    }
+
+    @Test
+    public void ball_matchesOldSubdivision() {
+        for (int res = 0; res <= 4; ++res) {
+            Mesh ball = Mesh.ball(res);
+            assertArrayEquals(oldBall(res), ball.expand(), 0.0f);
+            assertEquals(8 << (2 * res), ball.triangleCount());
+        }
+        // with every edge middle shared, a closed mesh has about half as many vertices as triangles
+        Mesh ball = Mesh.ball(5);
+        assertTrue(ball.vertexCount() < ball.indices.length / 5);
+    }
+
+    @Test
+    public void column_sharesVertices_andClosesTheLid() {
+        final float r = 0.1f, res = 0.0625f;
+        Mesh column = Mesh.column(r, res, 3.2f);
+        final int l = 16;
+        assertEquals(2 * (l + 1) + 1 + l, column.vertexCount());
+        assertEquals(3 * l, column.triangleCount());
+
+        // the lid covers the whole circle: its triangles add up to the regular polygon
+        float area = 0.0f;
+        final float [] v = column.vertices;
+        final int F = Model.floatsPerVertex;
+        for (int t = 2 * l; t < 3 * l; ++t) {
+            int a = column.indices[3*t], b = column.indices[3*t+1], c = column.indices[3*t+2];
+            float abx = v[b*F] - v[a*F], aby = v[b*F+1] - v[a*F+1], acx = v[c*F] - v[a*F], acy = v[c*F+1] - v[a*F+1];
+            area += 0.5f * (abx * acy - aby * acx);
+        }
+        assertEquals(0.5 * l * r * r * Math.sin(2 * Math.PI / l), Math.abs(area), 1e-5);
+    }
+
+    @Test
+    public void column_closesItsSide_whateverTheRes() {
+        final int F = Model.floatsPerVertex;
+        for (float res : new float[] { 0.08f, 0.03f, 1.0f / 12, 0.5f }) {
+            final float [] v = Mesh.column(0.1f, res, 3.2f).vertices;
+            final int l = Math.max(3, Math.round(1.0f / res)), last = 2 * l; // the bottom vertices, two per step
+            assertEquals(v[0], v[last * F], 1e-6f);
+            assertEquals(v[1], v[last * F + 1], 1e-6f);
+        }
+    }
+
+    @Test
+    public void meshes_areCachedByParameters() {
+        assertSame(Mesh.ball(3), Mesh.ball(3));
+        assertNotSame(Mesh.ball(3), Mesh.ball(2));
+        assertSame(Mesh.column(0.1f, 0.01f, 3.2f), Mesh.column(0.1f, 0.01f, 3.2f));
+        assertNotSame(Mesh.column(0.1f, 0.01f, 3.2f), Mesh.column(0.1f, 0.0625f, 3.2f));
+    }
+
+    // a triangle by its vertex values, rotated to start with the smallest index for comparison
+    private static List<String> triangles(Mesh mesh) {
+        final float [] data = mesh.expand();
+        final int T = 3 * Model.floatsPerVertex;
+        List<String> out = new ArrayList<>();
+        for (int t = 0; t < data.length / T; ++t) {
+            String [] corners = new String[3];
+            for (int k = 0; k < 3; ++k) {
+                StringBuilder corner = new StringBuilder();
+                for (int j = 0; j < Model.floatsPerVertex; ++j) corner.append(data[t*T + k*Model.floatsPerVertex + j]).append(',');
+                corners[k] = corner.toString();
+            }
+            int first = 0;
+            for (int k = 1; k < 3; ++k) if (corners[k].compareTo(corners[first]) < 0) first = k;
+            out.add(corners[first] + "|" + corners[(first + 1) % 3] + "|" + corners[(first + 2) % 3]);
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+    // a size x size grid of quads as a plain triangle list, row by row
+    private static float [] grid(int size) {
+        final int F = Model.floatsPerVertex;
+        float [] data = new float[size * size * 6 * F];
+        int o = 0;
+        final int [][] corners = {{0,0},{1,0},{1,1},{0,0},{1,1},{0,1}};
+        for (int y = 0; y < size; ++y) {
+            for (int x = 0; x < size; ++x) {
+                for (int [] c : corners) {
+                    data[o] = x + c[0];
+                    data[o+1] = y + c[1];
+                    data[o+5] = 1.0f;
+                    data[o+6] = (x + c[0]) / (float) size;
+                    data[o+7] = (y + c[1]) / (float) size;
+                    o += F;
+                }
+            }
+        }
+        return data;
+    }
+
+    @Test
+    public void weld_mergesIdenticalVertices_only() {
+        final float [] data = grid(20);
+        Mesh welded = Mesh.weld(data);
+        assertEquals(21 * 21, welded.vertexCount());
+        assertArrayEquals(data, welded.expand(), 0.0f);
+
+        // a different normal keeps a vertex apart
+        data[5] = 0.5f;
+        assertEquals(21 * 21 + 1, Mesh.weld(data).vertexCount());
+        assertEquals(0, Mesh.weld(new float[0]).vertexCount());
+    }
+
+    // Average cache miss ratio: transformed vertices per triangle with a FIFO cache of cacheSize.
+    private static float acmr(int [] indices, int cacheSize) {
+        final Map<Integer, Integer> cached = new HashMap<>(); // vertex -> time it entered the cache
+        int misses = 0;
+        for (int index : indices) {
+            final Integer time = cached.get(index);
+            if (time == null || misses - time >= cacheSize) {
+                cached.put(index, misses++);
+            }
+        }
+        return indices.length > 0 ? 3.0f * misses / indices.length : 0.0f;
+    }
+
+    @Test
+    public void tipsify_keepsTriangles_andLowersCacheMisses() {
+        Mesh grid = Mesh.weld(grid(64));
+        Mesh ball = Mesh.ball(4);
+        for (Mesh mesh : new Mesh[] { grid, ball }) {
+            Mesh optimized = mesh.optimized();
+            assertEquals(triangles(mesh), triangles(optimized));
+            assertEquals(mesh.vertexCount(), optimized.vertexCount());
+            final float before = acmr(mesh.indices, Mesh.CACHE_SIZE), after = acmr(optimized.indices, Mesh.CACHE_SIZE);
+            assertTrue(after < before);
+            assertTrue(after < 0.8f);
+        }
+        assertSame(ball.optimized(), ball.optimized());
+    }
+
+    @Test
+    public void compact_numbersVerticesByFirstUse() {
+        Mesh mesh = new Mesh(grid(1), new int[] { 5, 2, 1, 5, 1, 0 });
+        Mesh compact = mesh.compact();
+        assertArrayEquals(new int[] { 0, 1, 2, 0, 2, 3 }, compact.indices);
+        assertArrayEquals(mesh.expand(), compact.expand(), 0.0f);
+    }
+}
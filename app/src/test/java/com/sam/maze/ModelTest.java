@@ -0,0 +1,92 @@
+package com.sam.maze;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ModelTest {
+    private static Model model() {
+        return new Model(new float[Model.floatsPerVertex]);
+    }
+
+    // instances with nothing but a translation
+    private static float [] instances(float... xy) {
+        float [] data = new float[xy.length / 2 * Model.floatsPerInstance];
+        for (int i = 0; i < xy.length / 2; ++i) {
+            data[i * Model.floatsPerInstance + 12] = xy[2 * i];
+            data[i * Model.floatsPerInstance + 13] = xy[2 * i + 1];
+        }
+        return data;
+    }
+
+    @Test
+    public void level_isTheLastDistanceReached() {
+        float [] from = { 2.0f, 5.0f };
+        assertEquals(0, Model.level(from, 0.0f));
+        assertEquals(0, Model.level(from, 1.99f));
+        assertEquals(1, Model.level(from, 2.0f));
+        assertEquals(1, Model.level(from, 4.9f));
+        assertEquals(2, Model.level(from, 5.0f));
+        assertEquals(2, Model.level(from, 100.0f));
+        assertEquals(0, Model.level(new float[0], 100.0f));
+    }
+
+    @Test
+    public void lodAt_picksTheRegisteredLevel() {
+        Model full = model(), half = model(), quarter = model();
+        full.setTextures(7, 8, 0.5f);
+        full.addLod(half, 3.0f);
+        full.addLod(quarter, 6.0f);
+        assertEquals(3, full.lodCount());
+        assertSame(full, full.lodAt(1.0f));
+        assertSame(half, full.lodAt(3.0f));
+        assertSame(quarter, full.lodAt(6.7f));
+        assertEquals(7, half.diffuseTex); // levels look the same
+        full.setTextures(9, 9, 0.0f);
+        assertEquals(9, quarter.specularTex);
+    }
+
+    @Test
+    public void instances_goToTheLevelOfTheirDistance() {
+        Model tower = model(), mid = model(), far = model();
+        tower.addLod(mid, 2.0f);
+        tower.addLod(far, 5.0f);
+        float [] data = instances(1, 0,  0, 3,  -4, 0,  6, 0,  0, -1);
+        tower.setInstances(data, 5, 0.0f, 0.0f, 1.0f);
+        assertEquals(2, tower.instanceCount());
+        assertEquals(2, mid.instanceCount());
+        assertEquals(1, far.instanceCount());
+
+        // a view that shows things three times smaller
+        tower.setInstances(data, 5, 0.0f, 0.0f, 3.0f);
+        assertEquals(0, tower.instanceCount());
+        assertEquals(2, mid.instanceCount());
+        assertEquals(3, far.instanceCount());
+
+        // only the first count
+        tower.setInstances(data, 2, 1.0f, 0.0f, 1.0f);
+        assertEquals(1, tower.instanceCount());
+        assertEquals(1, mid.instanceCount());
+        assertEquals(0, far.instanceCount());
+    }
+
+    @Test
+    public void copies_getTheirOwnLevels() {
+        Model sky = model(), coarse = model();
+        sky.addLod(coarse, 3.0f);
+        Model earth = new Model(sky);
+        earth.setTextures(4, 4, 0.0f);
+        assertEquals(2, earth.lodCount());
+        assertNotSame(coarse, earth.lod(1));
+        assertEquals(coarse.vao, earth.lod(1).vao);
+        assertEquals(4, earth.lodAt(3.0f).diffuseTex);
+        assertNotEquals(4, coarse.diffuseTex);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void levels_mustGoFromNearToFar() {
+        Model full = model();
+        full.addLod(model(), 5.0f);
+        full.addLod(model(), 2.0f);
+    }
+}
@@ -0,0 +1,108 @@
+package com.sam.maze;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PortalCullerTest {
+    private static final int LIMIT = 15;
+
+    private static boolean contains(PortalCuller culler, int x, int y, boolean left) {
+        for (int i = 0; i < culler.wallCount(); ++i)
+            if (culler.wallX(i) == x && culler.wallY(i) == y && culler.wallLeft(i) == left) return true;
+        return false;
+    }
+
+    // walks a ray through the grid and returns the first wall it hits as {x, y, left}, or null
+    private static int [] castRay(Maze maze, float x, float y, double angle) {
+        final double dx = Math.cos(angle), dy = Math.sin(angle);
+        int cx = (int)Math.floor(x), cy = (int)Math.floor(y);
+        final int sx = dx > 0 ? 1 : -1, sy = dy > 0 ? 1 : -1;
+        double tx = dx == 0 ? Double.MAX_VALUE : ((dx > 0 ? cx + 1 : cx) - x) / dx;
+        double ty = dy == 0 ? Double.MAX_VALUE : ((dy > 0 ? cy + 1 : cy) - y) / dy;
+        final int startX = cx, startY = cy;
+        while (Math.abs(cx - startX) + Math.abs(cy - startY) <= LIMIT) {
+            if (tx < ty) {
+                final int wx = sx > 0 ? cx + 1 : cx;
+                if (maze.left(wx, cy)) return new int[] { wx, cy, 1 };
+                cx += sx;
+                tx += sx / dx;
+            } else {
+                final int wy = sy > 0 ? cy + 1 : cy;
+                if (maze.top(cx, wy)) return new int[] { cx, wy, 0 };
+                cy += sy;
+                ty += sy / dy;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void everyWallHitByARay_isVisible() {
+        Maze maze = new Maze(30, 30, 21L);
+        PortalCuller culler = new PortalCuller(maze);
+        for (int cell = 0; cell < 900; cell += 7) {
+            final float x = cell % 30 + 0.37f, y = cell / 30 + 0.61f;
+            culler.update(x, y, LIMIT, null);
+            for (int i = 0; i < 2000; ++i) {
+                int [] wall = castRay(maze, x, y, 2.0 * Math.PI * i / 2000);
+                if (wall != null && Math.abs(wall[0] - (int)x) + Math.abs(wall[1] - (int)y) < LIMIT)
+                    assertTrue("wall " + wall[0] + "," + wall[1] + " from " + x + "," + y,
+                            contains(culler, wall[0], wall[1], wall[2] == 1));
+            }
+        }
+    }
+
+    @Test
+    public void wallsBehindTurns_areHidden() {
+        // a serpentine: rows are corridors, joined at alternating ends
+        final int n = 10;
+        Maze maze = new Maze(n, n, (m, random) -> {
+            for (int y = 0; y < n; ++y) {
+                for (int x = 1; x < n; ++x) m.connect(y * n + x - 1, y * n + x);
+                if (y > 0) m.connect((y - 1) * n + (y % 2 == 1 ? n - 1 : 0), y * n + (y % 2 == 1 ? n - 1 : 0));
+            }
+        }, 0L);
+        PortalCuller culler = new PortalCuller(maze);
+        assertTrue(culler.update(0.5f, 0.5f, LIMIT, null));
+        assertTrue(contains(culler, 9, 1, false) || contains(culler, 8, 1, false)); // the far end of the corridor
+        for (int i = 0; i < culler.wallCount(); ++i)
+            assertTrue(culler.wallY(i) <= 2);
+        assertFalse(culler.update(0.52f, 0.5f, LIMIT, null));
+        assertTrue(culler.towerCount() > 0);
+        for (int i = 0; i < culler.towerCount(); ++i)
+            assertTrue(MeshBuilder.hasTower(maze, culler.towerX(i), culler.towerY(i)));
+    }
+
+    @Test
+    public void endlessMaze_staysBounded() {
+        EndlessMaze endless = new EndlessMaze(99L);
+        PortalCuller culler = new PortalCuller(endless);
+        for (int i = 0; i < 50; ++i) {
+            culler.update(-40.5f + 3 * i, 17.5f - 2 * i, 20, null);
+            for (int k = 0; k < culler.wallCount(); ++k)
+                assertTrue(Math.abs(culler.wallX(k) - (-41 + 3 * i)) + Math.abs(culler.wallY(k) - (17 - 2 * i)) <= 22);
+        }
+    }
+
+    @Test
+    public void averageVisibleWalls_perCell() {
+        final long seed = 42L;
+        Maze maze = new Maze(60, 60, seed);
+        PortalCuller culler = new PortalCuller(maze);
+        long visible = 0, inReach = 0;
+        for (int y = 0; y < maze.height; ++y) {
+            for (int x = 0; x < maze.width; ++x) {
+                culler.update(x + 0.5f, y + 0.5f, LIMIT, null);
+                visible += culler.wallCount();
+                for (int wy = y - LIMIT; wy <= y + LIMIT + 1; ++wy)
+                    for (int wx = x - LIMIT; wx <= x + LIMIT + 1; ++wx)
+                        if (Math.abs(wx - x) + Math.abs(wy - y) <= LIMIT)
+                            inReach += (maze.top(wx, wy) ? 1 : 0) + (maze.left(wx, wy) ? 1 : 0);
+            }
+        }
+        final double cells = maze.width * maze.height;
+        System.out.printf("seed %d, 60x60: %.1f visible walls per cell, %.1f within reach%n", seed, visible / cells, inReach / cells);
+        assertTrue(visible * 10 < inReach);
+    }
+}
@@ -0,0 +1,61 @@
+package com.sam.maze;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class ProgramCacheTest {
+    private static ProgramCache.Binary binary(int format, byte... bytes) {
+        ByteBuffer data = ByteBuffer.allocateDirect(bytes.length);
+        data.put(bytes).flip();
+        return new ProgramCache.Binary(format, data);
+    }
+
+    @Test
+    public void key_dependsOnSourcesAndDriver() {
+        final String key = ProgramCache.key("void main() {}", "void main() {}", "GPU\n3.2");
+        assertEquals(64, key.length());
+        assertEquals(key, ProgramCache.key("void main() {}", "void main() {}", "GPU\n3.2"));
+        assertNotEquals(key, ProgramCache.key("void main() {} ", "void main() {}", "GPU\n3.2"));
+        assertNotEquals(key, ProgramCache.key("void main() {}", "void main() {}", "GPU\n3.3"));
+        assertNotEquals(ProgramCache.key("ab", "c", ""), ProgramCache.key("a", "bc", ""));
+    }
+
+    @Test
+    public void binary_survivesTheDisk() throws IOException {
+        File file = new File(Files.createTempDirectory("programs").toFile(), "sub/p.bin");
+        ProgramCache.write(file, binary(0x8740, (byte)1, (byte)2, (byte)3));
+        ProgramCache.Binary read = ProgramCache.read(file);
+        assertNotNull(read);
+        assertEquals(0x8740, read.format);
+        assertEquals(3, read.data.remaining());
+        assertEquals(3, read.data.get(2));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void brokenFiles_areMisses() throws IOException {
+        File dir = Files.createTempDirectory("programs").toFile();
+        assertNull(ProgramCache.read(new File(dir, "missing.bin")));
+
+        File truncated = new File(dir, "truncated.bin");
+        ProgramCache.write(truncated, binary(1, new byte[100]));
+        try (RandomAccessFile raf = new RandomAccessFile(truncated, "rw")) {
+            raf.setLength(60);
+        }
+        assertNull(ProgramCache.read(truncated));
+
+        File foreign = new File(dir, "foreign.bin");
+        try (FileOutputStream out = new FileOutputStream(foreign)) {
+            out.write(new byte[32]);
+        }
+        assertNull(ProgramCache.read(foreign));
+    }
+}
@@ -0,0 +1,83 @@
+package com.sam.maze;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RenderStateTest {
+    // records the calls that would reach GL
+    private static class FakeBackend implements RenderState.Backend {
+        final List<String> calls = new ArrayList<>();
+        @Override public void activeTexture(int unit) { calls.add("unit " + unit); }
+        @Override public void bindTexture(int texture) { calls.add("texture " + texture); }
+        @Override public void bindVertexArray(int vao) { calls.add("vao " + vao); }
+    }
+
+    private static Model model(int vao, int diffuse, int specular, float shininess) {
+        Model model = new Model(new float[Model.floatsPerVertex]);
+        model.vao = vao;
+        model.setTextures(diffuse, specular, shininess);
+        return model;
+    }
+
+    @Test
+    public void repeatedBinds_areSkipped() {
+        FakeBackend gl = new FakeBackend();
+        RenderState state = new RenderState(gl);
+        state.bindTexture(1, 7);
+        state.bindTexture(1, 7);
+        state.bindTexture(2, 7);
+        state.bindVertexArray(3);
+        state.bindVertexArray(3);
+        assertEquals(3, state.issued());
+        assertEquals(2, state.skipped());
+        assertEquals(List.of("unit 1", "texture 7", "unit 2", "texture 7", "vao 3"), gl.calls);
+
+        state.reset();
+        state.bindVertexArray(3);
+        assertEquals("vao 3", gl.calls.get(gl.calls.size() - 1));
+    }
+
+    @Test
+    public void sortedQueue_sharesTexturesAndMaterial() {
+        // the order MazeWorld.draw() adds them in
+        Model walls = model(10, 1, 2, 0.3f), towers = model(11, 1, 2, 0.55f), path = model(12, 1, 2, 0.3f), floor = model(13, 3, 4, 0.4f);
+        DrawQueue queue = new DrawQueue();
+        float [] id = new float[16];
+        queue.add(walls, id);
+        queue.add(floor, id);
+        queue.add(towers, id);
+        queue.add(path, id);
+        queue.sort();
+        assertSame(walls, queue.model(0));
+        assertSame(path, queue.model(1));
+        assertSame(towers, queue.model(2));
+        assertSame(floor, queue.model(3));
+
+        FakeBackend gl = new FakeBackend();
+        RenderState state = new RenderState(gl);
+        int materials = 0;
+        for (int i = 0; i < queue.size(); ++i) {
+            Model m = queue.model(i);
+            m.bind(state);
+            if (state.material(null, m.diffuseTex, m.specularTex, m.shininess, false)) ++materials;
+        }
+        assertEquals(3, materials); // path reuses the walls' material
+        assertEquals(4 + 4 + 3, state.issued()); // 2 + 2 textures, 4 vertex arrays, 3 materials
+        assertEquals(4 + 1, state.skipped()); // path and towers find their textures bound, path its material
+        assertEquals(4 + 4 + 4, gl.calls.size()); // each texture needs its unit activated
+    }
+
+    @Test
+    public void deletedTexture_isBoundAgain() {
+        FakeBackend gl = new FakeBackend();
+        RenderState state = new RenderState(gl);
+        state.bindTexture(1, 7);
+        state.forgetTexture(7); // the name may come back for a new texture
+        state.bindTexture(1, 7);
+        assertEquals(List.of("unit 1", "texture 7", "texture 7"), gl.calls);
+    }
+}
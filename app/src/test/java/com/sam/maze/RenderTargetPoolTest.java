@@ -0,0 +1,91 @@
+package com.sam.maze;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RenderTargetPoolTest {
+    // hands out increasing handles and records the calls that would reach GL
+    private static class FakeBackend implements RenderTargetPool.Backend {
+        final List<String> calls = new ArrayList<>();
+        int next = 1;
+        @Override public void create(RenderTargetPool.Target target) {
+            target.fbo = next++;
+            target.color = next++;
+            target.depth = next++;
+            calls.add("create " + target.width + "x" + target.height);
+        }
+        @Override public void resize(RenderTargetPool.Target target) { calls.add("resize " + target.width + "x" + target.height); }
+        @Override public void delete(RenderTargetPool.Target target) { calls.add("delete " + target.fbo); }
+    }
+
+    @Test
+    public void rotations_resizeInPlace_andKeepMemoryFlat() {
+        FakeBackend gl = new FakeBackend();
+        RenderTargetPool pool = new RenderTargetPool(gl);
+        RenderTargetPool.Target first = pool.acquire("mirror", 360, 162);
+        final int fbo = first.fbo, color = first.color, depth = first.depth;
+        final long bytes = pool.memory();
+        assertEquals(360L * 162 * RenderTargetPool.BYTES_PER_PIXEL, bytes);
+
+        for (int i = 0; i < 100; ++i) {
+            RenderTargetPool.Target target = i % 2 == 0 ? pool.acquire("mirror", 162, 360) : pool.acquire("mirror", 360, 162);
+            assertSame(first, target);
+            assertEquals(fbo, target.fbo);
+            assertEquals(color, target.color);
+            assertEquals(depth, target.depth);
+            assertEquals(bytes, pool.memory());
+        }
+        assertEquals(1, pool.size());
+        assertEquals(101, gl.calls.size());
+        assertEquals("create 360x162", gl.calls.get(0));
+        assertEquals("resize 162x360", gl.calls.get(1));
+    }
+
+    @Test
+    public void sameSize_touchesNothing() {
+        FakeBackend gl = new FakeBackend();
+        RenderTargetPool pool = new RenderTargetPool(gl);
+        pool.acquire("mirror", 100, 50);
+        pool.acquire("mirror", 100, 50);
+        assertEquals(List.of("create 100x50"), gl.calls);
+    }
+
+    @Test
+    public void release_deletesAndStopsCounting() {
+        FakeBackend gl = new FakeBackend();
+        RenderTargetPool pool = new RenderTargetPool(gl);
+        RenderTargetPool.Target a = pool.acquire("a", 10, 10);
+        RenderTargetPool.Target b = pool.acquire("b", 20, 10);
+        assertEquals(300L * RenderTargetPool.BYTES_PER_PIXEL, pool.memory());
+
+        pool.release("a");
+        pool.release("a"); // gone already
+        assertEquals(200L * RenderTargetPool.BYTES_PER_PIXEL, pool.memory());
+        assertTrue(gl.calls.contains("delete " + a.fbo));
+
+        pool.releaseAll();
+        assertEquals(0, pool.memory());
+        assertEquals(0, pool.size());
+        assertTrue(gl.calls.contains("delete " + b.fbo));
+    }
+
+    @Test
+    public void reset_forgetsWithoutDeleting() {
+        FakeBackend gl = new FakeBackend();
+        RenderTargetPool pool = new RenderTargetPool(gl);
+        RenderTargetPool.Target old = pool.acquire("mirror", 10, 10);
+        pool.reset();
+        assertEquals(0, pool.memory());
+        assertNotSame(old, pool.acquire("mirror", 10, 10));
+        assertEquals(List.of("create 10x10", "create 10x10"), gl.calls);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyTarget_isRejected() {
+        new RenderTargetPool(new FakeBackend()).acquire("mirror", 0, 10);
+    }
+}
@@ -0,0 +1,77 @@
+package com.sam.maze;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ResourceRegistryTest {
+    private final List<Integer> deleted = new ArrayList<>();
+    private int created;
+
+    private ResourceRegistry.Handle<Integer> acquire(ResourceRegistry registry, String key) {
+        return registry.acquire(key, () -> ++created, deleted::add);
+    }
+
+    @Test
+    public void secondWorld_reusesWhatTheFirstHolds() {
+        ResourceRegistry registry = new ResourceRegistry();
+        ResourceRegistry.Handle<Integer> first = acquire(registry, "texture 1");
+        ResourceRegistry.Handle<Integer> second = acquire(registry, "texture 1");
+        assertEquals(1, created);
+        assertEquals(first.get(), second.get());
+        assertEquals(2, registry.refs("texture 1"));
+
+        first.close();
+        second.close();
+        assertTrue(deleted.isEmpty()); // kept for the next world
+        assertEquals(0, registry.refs("texture 1"));
+
+        ResourceRegistry.Handle<Integer> next = acquire(registry, "texture 1");
+        assertEquals(1, created);
+        assertEquals(first.get(), next.get());
+    }
+
+    @Test
+    public void trim_deletesOnlyWhatNobodyHolds() {
+        ResourceRegistry registry = new ResourceRegistry();
+        acquire(registry, "texture 1").close();
+        ResourceRegistry.Handle<Integer> held = acquire(registry, "texture 2");
+        registry.trim();
+        assertEquals(List.of(1), deleted);
+        assertEquals(1, registry.size());
+
+        held.close();
+        registry.trim();
+        assertEquals(List.of(1, 2), deleted);
+        assertEquals(0, registry.size());
+        acquire(registry, "texture 1"); // created again once deleted
+        assertEquals(3, created);
+    }
+
+    @Test
+    public void closingTwice_releasesOnce() {
+        ResourceRegistry registry = new ResourceRegistry();
+        ResourceRegistry.Handle<Integer> a = acquire(registry, "program");
+        acquire(registry, "program");
+        a.close();
+        a.close();
+        assertEquals(1, registry.refs("program"));
+        assertTrue(deleted.isEmpty());
+    }
+
+    @Test
+    public void reset_forgetsWithoutDeleting() {
+        ResourceRegistry registry = new ResourceRegistry();
+        ResourceRegistry.Handle<Integer> old = acquire(registry, "texture 1");
+        registry.reset();
+        ResourceRegistry.Handle<Integer> fresh = acquire(registry, "texture 1");
+        old.close(); // belongs to the lost context, must not release the new one
+        assertEquals(1, registry.refs("texture 1"));
+        fresh.close();
+        registry.trim();
+        assertEquals(List.of(fresh.get()), deleted);
+    }
+}
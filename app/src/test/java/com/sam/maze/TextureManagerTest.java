@@ -0,0 +1,44 @@
+package com.sam.maze;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class TextureManagerTest {
+    @Test
+    public void textures_getDistinctUnits_andKeepThem() {
+        TextureManager textures = new TextureManager(8);
+        Set<Integer> units = new HashSet<>();
+        for (int tex = 10; tex < 17; ++tex) {
+            int unit = textures.unit(tex);
+            assertNotEquals(TextureManager.UPLOAD_UNIT, unit);
+            assertTrue(unit < 8);
+            units.add(unit);
+        }
+        assertEquals(7, units.size());
+        assertEquals(textures.unit(12), textures.unit(12));
+    }
+
+    @Test
+    public void unitsRunOut_startSharing_butNeverUploadUnit() {
+        TextureManager textures = new TextureManager(4);
+        for (int tex = 1; tex <= 10; ++tex) {
+            int unit = textures.unit(tex);
+            assertNotEquals(TextureManager.UPLOAD_UNIT, unit);
+            assertEquals(1 + (tex - 1) % 3, unit);
+        }
+    }
+
+    @Test
+    public void reset_forgetsUnits() {
+        TextureManager textures = new TextureManager(8);
+        textures.unit(5);
+        int unit = textures.unit(6);
+        textures.reset();
+        assertEquals(1, textures.unit(6));
+        assertNotEquals(unit, textures.unit(6));
+    }
+}
@@ -0,0 +1,95 @@
+package com.sam.maze;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class VisibleSetTest {
+    private static final int T = VisibleSet.TILE_SIZE;
+
+    // proj * view for a camera at eye height looking horizontally along (dx, dy), like MazeWorld.setView()
+    static float [] viewProj(float x, float y, float dx, float dy) {
+        final float near = 0.02f, far = 100.0f, aspect = 1.5f;
+        final float f = 1.0f / (float)Math.tan(Math.toRadians(45.0) / 2.0);
+        final float [] proj = {
+                f / aspect, 0, 0, 0,
+                0, f, 0, 0,
+                0, 0, (far + near) / (near - far), -1,
+                0, 0, 2 * far * near / (near - far), 0 };
+
+        // camera axes: right = dir x up, up = z, back = -dir
+        final float len = (float)Math.sqrt(dx * dx + dy * dy);
+        final float fx = dx / len, fy = dy / len, z = 0.5f;
+        final float rx = fy, ry = -fx;
+        final float [] view = {
+                rx, 0, -fx, 0,
+                ry, 0, -fy, 0,
+                0, 1, 0, 0,
+                -(rx * x + ry * y), -z, fx * x + fy * y, 1 };
+
+        final float [] m = new float[16];
+        for (int c = 0; c < 4; ++c)
+            for (int r = 0; r < 4; ++r)
+                for (int k = 0; k < 4; ++k)
+                    m[4 * c + r] += proj[4 * k + r] * view[4 * c + k];
+        return m;
+    }
+
+    @Test
+    public void tilesBehindTheCamera_areCulled() {
+        VisibleSet set = new VisibleSet();
+        assertTrue(set.update(viewProj(50.5f, 50.5f, 1.0f, 0.0f), 50.5f, 50.5f, 15.0f));
+        assertTrue(set.contains(50 / T, 50 / T)); // the player's own tile
+        assertTrue(set.contains(60 / T, 50 / T));
+        assertFalse(set.contains(40 / T, 50 / T));
+        for (int i = 0; i < set.size(); ++i)
+            assertTrue(set.tileX(i) * T + T >= 50 - 1);
+    }
+
+    @Test
+    public void tilesOutOfReach_areCulled() {
+        VisibleSet set = new VisibleSet();
+        set.update(viewProj(50.5f, 50.5f, 1.0f, 1.0f), 50.5f, 50.5f, 15.0f);
+        assertTrue(set.contains(56 / T, 56 / T));
+        assertFalse(set.contains(64 / T, 64 / T)); // on the diagonal, but 26 steps away
+    }
+
+    @Test
+    public void update_reportsChangesOnly() {
+        VisibleSet set = new VisibleSet();
+        set.update(viewProj(20.5f, 20.5f, 1.0f, 0.0f), 20.5f, 20.5f, 15.0f);
+        assertFalse(set.update(viewProj(20.5f, 20.5f, 1.0f, 0.0f), 20.5f, 20.5f, 15.0f));
+        assertFalse(set.update(viewProj(20.6f, 20.5f, 1.0f, 0.01f), 20.6f, 20.5f, 15.0f));
+        assertTrue(set.update(viewProj(20.5f, 20.5f, -1.0f, 0.0f), 20.5f, 20.5f, 15.0f));
+        assertTrue(set.contains(8 / T, 20 / T));
+        assertFalse(set.contains(32 / T, 20 / T));
+    }
+
+    @Test
+    public void bounds_limitFiniteMazes() {
+        VisibleSet set = new VisibleSet();
+        set.setBounds(0, 0, 11, 11); // a 10x10 maze
+        set.update(viewProj(0.5f, 0.5f, -1.0f, -1.0f), 0.5f, 0.5f, 20.0f);
+        assertEquals(1, set.size());
+        set.update(viewProj(0.5f, 0.5f, 1.0f, 1.0f), 0.5f, 0.5f, 20.0f);
+        assertEquals(4, set.size());
+        for (int i = 0; i < set.size(); ++i)
+            assertTrue(set.tileX(i) >= 0 && set.tileX(i) <= 1 && set.tileY(i) >= 0 && set.tileY(i) <= 1);
+    }
+
+    @Test
+    public void instances_comeFromVisibleTilesOnly() {
+        Maze maze = new Maze(40, 40, 4L);
+        VisibleSet set = new VisibleSet();
+        set.setBounds(0, 0, 41, 41);
+        set.update(viewProj(20.5f, 20.5f, 0.0f, 1.0f), 20.5f, 20.5f, 15.0f);
+        int walls = 0;
+        for (int i = 0; i < set.size(); ++i) {
+            final int x = set.tileX(i) * T, y = set.tileY(i) * T;
+            walls += MeshBuilder.instanceWalls(maze, x, y, x + T, y + T).length;
+        }
+        final int all = MeshBuilder.instanceWalls(maze, 0, 0, 41, 41).length;
+        assertEquals(walls, MeshBuilder.instanceWalls(maze, set).length);
+        assertTrue(walls > 0 && walls < all / 2);
+    }
+}